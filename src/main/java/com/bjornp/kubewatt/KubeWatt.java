@@ -1,54 +1,117 @@
 package com.bjornp.kubewatt;
 
 import ch.qos.logback.classic.Level;
+import com.bjornp.kubewatt.collector.node.NodeRegistry;
+import com.bjornp.kubewatt.collector.power.rapl.RaplAgent;
+import com.bjornp.kubewatt.collector.power.rapl.RaplReader;
 import com.bjornp.kubewatt.estimator.ContainerPowerEstimator;
+import com.bjornp.kubewatt.exporter.AggregationLevel;
+import com.bjornp.kubewatt.exporter.PowerAggregator;
+import com.bjornp.kubewatt.exporter.PowerSeriesBuilder;
+import com.bjornp.kubewatt.exporter.PowerSeriesSink;
+import com.bjornp.kubewatt.exporter.PrometheusPowerExporter;
+import com.bjornp.kubewatt.exporter.TopKSelector;
+import com.bjornp.kubewatt.exporter.quantile.PowerQuantileExporter;
+import com.bjornp.kubewatt.exporter.remotewrite.RemoteWriteSink;
 import com.bjornp.kubewatt.initializer.BaseInitializer;
 import com.bjornp.kubewatt.initializer.BootstrapInitializer;
-import com.bjornp.kubewatt.model.ContainerValue;
+import com.bjornp.kubewatt.jfr.JfrRecorder;
+import com.bjornp.kubewatt.jfr.KubernetesApiInterceptor;
+import com.bjornp.kubewatt.jfr.TickEvent;
+import com.bjornp.kubewatt.server.CachedMetricsHandler;
+import com.bjornp.kubewatt.history.PowerHistoryStore;
+import com.bjornp.kubewatt.server.JfrDumpHandler;
+import com.bjornp.kubewatt.server.KubeWattHttpServer;
+import com.bjornp.kubewatt.server.PowerHistoryHandler;
+import com.bjornp.kubewatt.server.PowerQueryHandler;
+import com.bjornp.kubewatt.server.RaplHandler;
+import com.bjornp.kubewatt.sharding.ShardManagerFactory;
+import com.bjornp.kubewatt.startup.StartupPhases;
 import com.bjornp.kubewatt.utils.config.Config;
 import io.kubernetes.client.openapi.ApiClient;
 import io.kubernetes.client.openapi.Configuration;
 import io.kubernetes.client.util.ClientBuilder;
-import io.prometheus.metrics.core.metrics.Gauge;
-import io.prometheus.metrics.exporter.httpserver.HTTPServer;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import ch.qos.logback.classic.Logger;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.List;
-import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Slf4j
 public class KubeWatt {
     public static final Instant start = Instant.now();
 
+    private static final long startNanos = System.nanoTime();
+
     @SneakyThrows
     public static void main(String[] args) {
         Logger rootLogger = (Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
         rootLogger.setLevel(Level.toLevel(Optional.ofNullable(System.getenv("KW_LOG_LEVEL")).orElse("DEBUG")));
 
-        log.info("Starting KubeWatt in {} mode", Config.get().mode());
+        if (Boolean.parseBoolean(System.getenv("KW_RAPL_AGENT"))) {
+            // the agent only reads the counters of its own node; it needs neither the Kubernetes API nor the mode
+            raplAgent();
+            return;
+        }
+
+        var mode = StartupPhases.time("config_load", () -> Config.get().mode());
+        log.info("Starting KubeWatt in {} mode", mode);
+
+        // bootstrapping Hibernate Validator is slow; let it run while the Kubernetes client is set up
+        var validation = CompletableFuture.runAsync(() -> StartupPhases.time("config_validation", () -> {
+            Config.validate();
+            return null;
+        }));
 
         // initialize Kubernetes client
-        ApiClient kubernetesClient = ClientBuilder.standard().build();
+        ApiClient kubernetesClient = StartupPhases.time("kubernetes_client", () -> KubernetesApiInterceptor.install(ClientBuilder.standard().build()));
         Configuration.setDefaultApiClient(kubernetesClient);
         log.info("Successfully initialized Kubernetes client");
 
-        switch (Config.get().mode()) {
+        try {
+            validation.join();
+        } catch (CompletionException e) {
+            throw e.getCause();
+        }
+
+        switch (mode) {
             case INIT_BASE -> initBase();
             case INIT_BOOTSTRAP -> initBootstrap();
             case ESTIMATOR -> estimator();
         }
     }
 
+    private static void raplAgent() throws IOException, ExecutionException, InterruptedException {
+        Config.validate();
+        var config = Config.get().collector().power().rapl();
+        if (config == null) {
+            throw new RuntimeException("collector.power.rapl is required to run the RAPL agent");
+        }
+        var node = Optional.ofNullable(System.getenv("KW_NODE_NAME")).orElse(InetAddress.getLocalHost().getHostName());
+        log.info("Starting KubeWatt RAPL agent on node {}", node);
+
+        var metricsHandler = new CachedMetricsHandler(PrometheusRegistry.defaultRegistry);
+        try (var server = new KubeWattHttpServer(9400, 2, metricsHandler);
+        var agent = new RaplAgent(new RaplReader(Path.of(config.powercapPathOrDefault())))) {
+            server.addHandler(RaplHandler.PATH, new RaplHandler(node, agent));
+            metricsHandler.refresh();
+            agent.start(Duration.ofMillis(config.sampleIntervalMillisOrDefault())).get();
+        }
+    }
+
     private static void initBase() {
         var initializer = new BaseInitializer();
         var result = initializer.init();
@@ -62,60 +125,77 @@ public class KubeWatt {
     }
 
     private static void estimator() throws IOException, ExecutionException, InterruptedException {
-        try (var server = HTTPServer.builder().port(9400).buildAndStart();
-        var scheduler = Executors.newSingleThreadScheduledExecutor()) {
-            log.info("Initialized Prometheus server on port 9400");
-
-            var estimator = new ContainerPowerEstimator();
-            var powerGauge = Gauge
-                    .builder()
-                    .name("kubewatt_container_power_watts")
-                    .help("Power in Watts per Kubernetes workload container")
-                    .labelNames("node", "namespace", "pod", "container", "type")
-                    .register();
-
-            for (var staticPower : Config.get().collector().nodeStaticPower().entrySet()) {
-                powerGauge
-                        .labelValues(staticPower.getKey(), "", "", "", "static")
-                        .set(staticPower.getValue());
+        var metricsHandler = StartupPhases.time("metrics_handler", () -> new CachedMetricsHandler(PrometheusRegistry.defaultRegistry));
+        var threads = Optional.ofNullable(Config.get().server()).map(Config.ServerConfig::threadsOrDefault).orElse(5);
+        var exporterConfig = Optional.ofNullable(Config.get().exporter());
+        // closed last, after everything that reads the nodes has stopped
+        var nodeRegistry = StartupPhases.time("node_registry", NodeRegistry::get);
+        try (var server = StartupPhases.time("http_server", () -> new KubeWattHttpServer(9400, threads, metricsHandler));
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        var shardManager = StartupPhases.time("shard_manager", ShardManagerFactory::getShardManager);
+        PowerSeriesSink remoteWrite = exporterConfig.map(Config.ExporterConfig::remoteWrite)
+                .<PowerSeriesSink>map(config -> new RemoteWriteSink(config, "kubewatt_container_power_watts"))
+                .orElse(series -> {});
+        // a null resource is not closed
+        var history = Config.get().history() == null ? null : new PowerHistoryStore(Config.get().history());
+        var recorder = Config.get().jfr() == null || !Config.get().jfr().enabled() ? null : new JfrRecorder(Config.get().jfr())) {
+
+            var estimator = StartupPhases.time("estimator", () -> new ContainerPowerEstimator(shardManager));
+            var aggregation = exporterConfig.map(Config.ExporterConfig::aggregationOrDefault).orElse(AggregationLevel.CONTAINER);
+            log.info("Exporting power per {}", aggregation);
+            var topK = exporterConfig.map(Config.ExporterConfig::topK).map(TopKSelector::new).orElse(null);
+            var seriesBuilder = new PowerSeriesBuilder(new PowerAggregator(aggregation, estimator), topK);
+            var exporter = new PrometheusPowerExporter(seriesBuilder.getLabelNames());
+            var queryHandler = new PowerQueryHandler(estimator);
+            server.addHandler(PowerQueryHandler.PATH, queryHandler);
+            if (history != null) {
+                server.addHandler(PowerHistoryHandler.PATH, new PowerHistoryHandler(history));
+            }
+            if (recorder != null) {
+                server.addHandler(JfrDumpHandler.PATH, new JfrDumpHandler(recorder));
             }
+            PowerSeriesSink quantiles = exporterConfig.map(Config.ExporterConfig::quantiles)
+                    .<PowerSeriesSink>map(config -> {
+                        var quantileExporter = new PowerQuantileExporter(config);
+                        PrometheusRegistry.defaultRegistry.register(quantileExporter);
+                        return quantileExporter;
+                    })
+                    .orElse(series -> {});
 
-            AtomicReference<Map<String, List<ContainerValue>>> powerUsageCache = new AtomicReference<>();
+            var firstTick = new AtomicBoolean(true);
             var future = scheduler.scheduleAtFixedRate(() -> {
-                var containerPowerUsage = estimator.getContainerPowerUsage();
-                // 1 - Remove containers from Prometheus that don't have new data; these are likely no longer running
-                if (powerUsageCache.get() != null) {
-                    var oldContainerPowerUsage = powerUsageCache.get();
-                    oldContainerPowerUsage.forEach((node, containerLs) -> {
-                        containerLs.forEach(oldContainer -> {
-                            // Check for each container whether a similar entry still exists
-                            // This could be more efficient by using a multimap for the metadata, but it shouldn't matter for a low no. containers
-                            if (containerPowerUsage.get(node).stream().noneMatch(container -> container.hasSameMeta(oldContainer))) {
-                                // If not, then remove it from Prometheus
-                                log.debug("Removing {} {} {} {} {}", node, oldContainer.namespace(), oldContainer.podName(), oldContainer.containerName(), "dynamic");
-                                powerGauge.remove(node, oldContainer.namespace(), oldContainer.podName(), oldContainer.containerName(), "dynamic");
-                            }
-                        });
-                    });
+                // an exception would cancel all further ticks and end KubeWatt through future.get(); a failed
+                // tick is skipped instead and the exposition keeps the previous tick's series
+                try {
+                    var tickEvent = new TickEvent();
+                    tickEvent.begin();
+                    // all samples of a tick carry the time the tick started
+                    var timestamp = System.currentTimeMillis();
+                    // the estimate is read in place by every consumer, without copying it into collections first
+                    estimator.estimate();
+                    queryHandler.update(timestamp);
+                    if (history != null) {
+                        history.record(estimator, timestamp);
+                    }
+                    var series = seriesBuilder.build(timestamp);
+                    exporter.accept(series);
+                    remoteWrite.accept(series);
+                    quantiles.accept(series);
+                    if (firstTick.getAndSet(false)) {
+                        StartupPhases.record("first_tick", Duration.ofMillis(System.currentTimeMillis() - timestamp));
+                        StartupPhases.logSummary(startNanos);
+                    }
+                    // render the exposition once for all scrapers until the next tick
+                    metricsHandler.refresh();
+                    tickEvent.series = series.values().size();
+                    tickEvent.commit();
+                } catch (RuntimeException e) {
+                    log.error("Tick failed; trying again in the next tick", e);
                 }
-
-                powerUsageCache.set(containerPowerUsage);
-                // 2 - Add new data to Prometheus
-                containerPowerUsage.forEach((node, containerLs) -> {
-                    containerLs.forEach(container -> {
-                        log.debug("Adding {} {} {} {} {} = {}", node, container.namespace(), container.podName(), container.containerName(), "dynamic", container.value());
-                        powerGauge
-                                .labelValues(node,
-                                        container.namespace(),
-                                        container.podName(),
-                                        container.containerName(),
-                                        "dynamic"
-                                )
-                                .set(container.value());
-                    });
-                });
             }, 0, 15, TimeUnit.SECONDS);
             future.get();
+        } finally {
+            nodeRegistry.close();
         }
     }
-}
\ No newline at end of file
+}
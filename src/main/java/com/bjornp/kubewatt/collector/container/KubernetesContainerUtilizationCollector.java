@@ -1,58 +1,306 @@
 package com.bjornp.kubewatt.collector.container;
 
+import com.bjornp.kubewatt.collector.node.NodeRegistry;
 import com.bjornp.kubewatt.model.ContainerValue;
+import com.bjornp.kubewatt.model.PodMetadata;
 import com.bjornp.kubewatt.utils.config.Config;
-import io.kubernetes.client.Metrics;
+import com.bjornp.kubewatt.utils.config.Config.CollectorConfig.UtilizationConfig.UtilizationSource;
+import com.bjornp.kubewatt.utils.config.Mode;
+import com.bjornp.kubewatt.utils.kubernetes.CoreApiReader;
+import com.bjornp.kubewatt.utils.kubernetes.KubeletResourceReader;
+import com.bjornp.kubewatt.utils.kubernetes.MetricsApiReader;
 import io.kubernetes.client.openapi.ApiException;
-import io.kubernetes.client.openapi.apis.CoreV1Api;
+import jakarta.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Slf4j
 public class KubernetesContainerUtilizationCollector {
+    @FunctionalInterface
+    public interface UtilizationVisitor {
+        /// The container of the usage of a whole pod outside the scope
+        String WHOLE_POD = "";
+
+        /// @param cpu The CPU seconds used recently.
+        /// @param inScope Whether the container is within the scoping of `collector.utilization`. Always true for a
+        ///                collector that is not scoped. A pod outside the scope is passed once, as [#WHOLE_POD].
+        void accept(String node, String namespace, String pod, String container, double cpu, boolean inScope);
+    }
+
+    /// How long the namespaces selected by `collector.utilization.namespace-label-selector` are used before they are
+    /// listed again
+    private static final Duration NAMESPACE_REFRESH = Duration.ofMinutes(1);
+
+    private final boolean scoped;
+
+    /// The namespaces last selected by label, or `null` before they are first listed
+    private Set<String> selectedNamespaces;
+
+    private long selectedNamespacesNanos;
+
+    /// The pods seen during the last collection, by namespace and name. Replaced as a whole every collection.
+    private volatile Map<String, Map<String, PodInfo>> pods = Map.of();
+
+    /// The CPU counters read from each node's kubelet during the last collection. A node's map is replaced as a whole
+    /// every collection, so containers the kubelet no longer reports are dropped.
+    private final Map<String, Map<ContainerKey, CpuCounter>> cpuCounters = new HashMap<>();
+
+    /// A pod listed on one of the requested nodes.
+    private record PodInfo(String node, PodMetadata metadata) {
+    }
+
+    private record ContainerKey(String namespace, String pod, String container) {
+    }
+
+    /// @param timestampMillis The time the kubelet read the counter.
+    /// @param cpu The CPU usage in cores derived from the counter, or NaN if it cannot be derived yet.
+    private record CpuCounter(double cpuSeconds, long timestampMillis, double cpu) {
+    }
+
+    /// Creates a collector that sees every pod in the cluster.
+    public KubernetesContainerUtilizationCollector() {
+        this(false);
+    }
+
+    /// @param scoped Whether to apply the namespace and label scoping from `collector.utilization`. Pods outside the
+    ///               scope are never listed; only their total CPU usage is read from the kubelets.
+    public KubernetesContainerUtilizationCollector(boolean scoped) {
+        this.scoped = scoped && Config.get().collector().utilization().isScoped();
+    }
+
     /// Returns the CPU seconds used by each container recently according to Kubernetes metrics API
     /// @return A Map of unique container identifiers and their utilization in CPU seconds. The inner map key is in the form 'namespace/pod/container' as we do not get container IDs from the metrics endpoint. This identifier is unique. The outer map specifies the node for each container.
     public Map<String, Map<String, ContainerValue>> getContainerUtilization() {
-        var api = new CoreV1Api();
+        return getContainerUtilization(NodeRegistry.get().getNodeNames());
+    }
 
+    /// Same as [#getContainerUtilization()], but only containers running on one of `nodes` are returned.
+    public Map<String, Map<String, ContainerValue>> getContainerUtilization(Collection<String> nodes) {
         var result = new HashMap<String, Map<String, ContainerValue>>();
-        for (var node : Config.get().collector().nodeNames()) {
+        for (var node : nodes) {
             result.put(node, new HashMap<>());
         }
+        collectContainerUtilization(nodes, (node, namespace, pod, container, cpu, inScope) -> {
+            if (!inScope) {
+                return;
+            }
+            // NB: We don't get container ID from metrics endpoint but 'namespace/pod/container' MUST be globally unique per container.
+            // A '/' is not valid in either of these three meaning we can split this out later if need be.
+            result.get(node).put("%s/%s/%s".formatted(namespace, pod, container), new ContainerValue(container, pod, namespace, cpu));
+        });
+        log.debug("Container utilization collection completed: {}", result);
+        return result;
+    }
+
+    /// Passes the CPU seconds used recently by each container running on one of `nodes` to `visitor`, without
+    /// collecting them in a map first.
+    ///
+    /// A scoped collector only lists and reads the pods in scope: the namespaces and the pod label selector are
+    /// passed to the API server. The dynamic power of a node is still divided by the CPU usage of all its pods, so a
+    /// container's share does not depend on the scoping. The usage of the pods outside the scope is therefore read
+    /// from the pod totals of each node's kubelet, and passed to `visitor` once per pod with container
+    /// [UtilizationVisitor#WHOLE_POD], as out of scope.
+    ///
+    /// With `collector.utilization.source` [UtilizationSource#KUBELET], the usage of the containers is read from the
+    /// same kubelet scrape instead of the metrics API; see [#collectFromKubelets].
+    public void collectContainerUtilization(Collection<String> nodes, UtilizationVisitor visitor) {
+        var api = new CoreApiReader();
+        var requested = new HashSet<>(nodes);
+        var utilization = Config.get().collector().utilization();
+        var podLabelSelector = scoped ? utilization.podLabelSelector() : null;
 
         try {
-            var namespaces = api.listNamespace().execute().getItems();
-            var metricsApi = new Metrics();
-            for (var namespace : namespaces) {
-                var metrics = metricsApi.getPodMetrics(namespace.getMetadata().getName()).getItems();
-                for (var pod : metrics) {
-                    var podInfo = api.readNamespacedPod(pod.getMetadata().getName(), pod.getMetadata().getNamespace()).execute();
-                    if (podInfo.getSpec() == null || podInfo.getSpec().getNodeName() == null) {
-                        log.error("Null value in spec or nodeName for pod {}. It will be ignored", podInfo);
-                        continue;
-                    }
-                    for (var container : pod.getContainers()) {
-                        // NB: We don't get container ID from metrics endpoint but 'namespace/pod/container' MUST be globally unique per container.
-                        // A '/' is not valid in either of these three meaning we can split this out later if need be.
-                        result.get(podInfo.getSpec().getNodeName()).put(
-                                "%s/%s/%s".formatted(namespace.getMetadata().getName(), pod.getMetadata().getName(), container.getName()),
-                                new ContainerValue(
-                                        container.getName(),
-                                        pod.getMetadata().getName(),
-                                        namespace.getMetadata().getName(),
-                                        container.getUsage().get("cpu").getNumber().doubleValue()
-                                )
-                        );
-                    }
+            var pods = new HashMap<String, Map<String, PodInfo>>();
+            Consumer<CoreApiReader.Pod> addPod = pod -> {
+                if (pod.nodeName() == null || !requested.contains(pod.nodeName())) {
+                    return;
+                }
+                pods.computeIfAbsent(pod.namespace(), key -> new HashMap<>())
+                        .put(pod.name(), new PodInfo(pod.nodeName(), new PodMetadata(pod.labels(), pod.ownerKind(), pod.ownerName())));
+            };
+            var namespaces = getScopedNamespaces(api);
+            if (namespaces != null) {
+                // namespaces are selected by name or by their labels, which the pod API cannot filter on; list per namespace
+                for (var namespace : namespaces) {
+                    api.forEachPod(namespace, null, podLabelSelector, addPod);
                 }
+            } else {
+                // Listing per node with a field selector means the cost scales with the requested nodes rather than
+                // with the whole cluster. Excluded namespaces are filtered out by the API server.
+                var excluded = scoped && utilization.excludeNamespaces() != null ? utilization.excludeNamespaces() : List.<String>of();
+                for (var node : nodes) {
+                    var fieldSelector = new ArrayList<String>();
+                    fieldSelector.add("spec.nodeName=" + node);
+                    excluded.forEach(namespace -> fieldSelector.add("metadata.namespace!=" + namespace));
+                    api.forEachPod(null, String.join(",", fieldSelector), podLabelSelector, addPod);
+                }
+            }
+            this.pods = pods;
+
+            if (utilization.sourceOrDefault() == UtilizationSource.KUBELET) {
+                collectFromKubelets(nodes, pods, true, visitor);
+                return;
+            }
+
+            var metricsApi = new MetricsApiReader();
+            // only the namespaces that have pods on our nodes; the others need no metrics call at all
+            for (var namespacePods : pods.entrySet()) {
+                metricsApi.forEachContainer(namespacePods.getKey(), podLabelSelector, (namespace, pod, container, cpu) -> {
+                    var info = namespacePods.getValue().get(pod);
+                    if (info == null) {
+                        // pod runs on a node we are not responsible for, or was not scheduled when we listed
+                        return;
+                    }
+                    visitor.accept(info.node(), namespace, pod, container, cpu, true);
+                });
+            }
+            if (scoped) {
+                collectFromKubelets(nodes, pods, false, visitor);
             }
         } catch (ApiException e) {
             throw new RuntimeException(e);
         }
+    }
 
-        log.debug("Container utilization collection completed: {}", result);
-        return result;
+    /// Scrapes the `/metrics/resource` endpoint of the kubelet of every node in `nodes` concurrently, through the API
+    /// server's node proxy. The usage of a container is the increase of its `container_cpu_usage_seconds_total`
+    /// counter divided by the time between the kubelet's two reads of it, so it covers exactly the time since the
+    /// previous collection. When the kubelet has not read the counter again since then, the previous usage is kept.
+    /// A container seen for the first time, or restarted, gets its average usage since it started.
+    ///
+    /// The data of a kubelet only covers its own node, so only containers of pods that were listed on that node are
+    /// passed on. A scoped collector also passes on the `pod_cpu_usage_seconds_total` of every other pod, as out of
+    /// scope; a pod total has no start time, so it is only passed on from the second time the pod is seen. In
+    /// ESTIMATOR mode a node whose kubelet cannot be read is left out of this collection; the INIT modes fail instead.
+    /// @param containers Whether to pass on the containers of the listed pods, rather than only the out-of-scope totals.
+    private synchronized void collectFromKubelets(Collection<String> nodes, Map<String, Map<String, PodInfo>> pods, boolean containers, UtilizationVisitor visitor) {
+        var reader = new KubeletResourceReader();
+        var reads = new LinkedHashMap<String, Future<KubeletResourceReader.Usage>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var node : nodes) {
+                reads.put(node, executor.submit(() -> reader.read(node, containers, scoped)));
+            }
+        }
+
+        cpuCounters.keySet().retainAll(reads.keySet());
+        var nowMillis = System.currentTimeMillis();
+        for (var read : reads.entrySet()) {
+            var node = read.getKey();
+            KubeletResourceReader.Usage usage;
+            try {
+                usage = read.getValue().get();
+            } catch (ExecutionException e) {
+                if (Config.get().mode() != Mode.ESTIMATOR) {
+                    throw new RuntimeException("Unable to read resource metrics of node " + node, e.getCause());
+                }
+                log.warn("Unable to read resource metrics of node {}; leaving it out of this collection", node, e.getCause());
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+
+            var previous = cpuCounters.getOrDefault(node, Map.of());
+            var current = new HashMap<ContainerKey, CpuCounter>();
+            for (var container : usage.containers()) {
+                var key = new ContainerKey(container.namespace(), container.pod(), container.container());
+                var counter = advance(previous.get(key), container.cpuSeconds(), container.timestampMillis(), container.startTimeSeconds(), nowMillis);
+                current.put(key, counter);
+                if (Double.isNaN(counter.cpu()) || !isListedOn(pods, container.namespace(), container.pod(), node)) {
+                    continue;
+                }
+                visitor.accept(node, container.namespace(), container.pod(), container.container(), counter.cpu(), true);
+            }
+            for (var pod : usage.pods()) {
+                if (isListedOn(pods, pod.namespace(), pod.pod(), node)) {
+                    // in scope, so its containers are read instead
+                    continue;
+                }
+                var key = new ContainerKey(pod.namespace(), pod.pod(), UtilizationVisitor.WHOLE_POD);
+                var counter = advance(previous.get(key), pod.cpuSeconds(), pod.timestampMillis(), Double.NaN, nowMillis);
+                current.put(key, counter);
+                if (!Double.isNaN(counter.cpu())) {
+                    visitor.accept(node, pod.namespace(), pod.pod(), UtilizationVisitor.WHOLE_POD, counter.cpu(), false);
+                }
+            }
+            cpuCounters.put(node, current);
+        }
+    }
+
+    private static boolean isListedOn(Map<String, Map<String, PodInfo>> pods, String namespace, String pod, String node) {
+        var info = pods.getOrDefault(namespace, Map.of()).get(pod);
+        return info != null && node.equals(info.node());
+    }
+
+    /// @param startTimeSeconds The time the counter started at zero, or NaN if unknown.
+    private static CpuCounter advance(@Nullable CpuCounter previous, double cpuSeconds, long counterMillis, double startTimeSeconds, long nowMillis) {
+        var timestampMillis = counterMillis < 0 ? nowMillis : counterMillis;
+        if (previous != null && cpuSeconds >= previous.cpuSeconds()) {
+            if (timestampMillis == previous.timestampMillis()) {
+                // the kubelet has not read the counter again since the previous collection
+                return previous;
+            }
+            if (timestampMillis > previous.timestampMillis()) {
+                var cpu = (cpuSeconds - previous.cpuSeconds()) / ((timestampMillis - previous.timestampMillis()) / 1000.0);
+                return new CpuCounter(cpuSeconds, timestampMillis, cpu);
+            }
+        }
+        // seen for the first time, or the counter was reset because the container restarted
+        var elapsedSeconds = timestampMillis / 1000.0 - startTimeSeconds;
+        var cpu = elapsedSeconds > 0 ? cpuSeconds / elapsedSeconds : Double.NaN;
+        return new CpuCounter(cpuSeconds, timestampMillis, cpu);
+    }
+
+    /// @return The metadata of a pod seen during the last collection.
+    public Optional<PodMetadata> getPodMetadata(String namespace, String pod) {
+        return Optional.ofNullable(pods.getOrDefault(namespace, Map.of()).get(pod)).map(PodInfo::metadata);
+    }
+
+    /// The names of the namespaces in scope, or `null` if the scope does not select namespaces by name or label.
+    /// Exclusions and the namespace label selector are evaluated by the API server. Namespaces selected by label are
+    /// listed again at most every [#NAMESPACE_REFRESH], not every collection.
+    private synchronized @Nullable Set<String> getScopedNamespaces(CoreApiReader api) throws ApiException {
+        var utilization = Config.get().collector().utilization();
+        if (!scoped || (utilization.includeNamespaces() == null && utilization.namespaceLabelSelector() == null)) {
+            return null;
+        }
+        var excluded = utilization.excludeNamespaces() == null ? List.<String>of() : utilization.excludeNamespaces();
+        if (utilization.namespaceLabelSelector() == null) {
+            var namespaces = new HashSet<>(utilization.includeNamespaces());
+            excluded.forEach(namespaces::remove);
+            return namespaces;
+        }
+        if (selectedNamespaces != null && System.nanoTime() - selectedNamespacesNanos < NAMESPACE_REFRESH.toNanos()) {
+            return selectedNamespaces;
+        }
+
+        String fieldSelector = null;
+        if (!excluded.isEmpty()) {
+            fieldSelector = excluded.stream()
+                    .map(namespace -> "metadata.name!=" + namespace)
+                    .collect(Collectors.joining(","));
+        }
+        var namespaces = new HashSet<>(api.listNamespaceNames(fieldSelector, utilization.namespaceLabelSelector()));
+        if (utilization.includeNamespaces() != null) {
+            namespaces.retainAll(utilization.includeNamespaces());
+        }
+        selectedNamespaces = namespaces;
+        selectedNamespacesNanos = System.nanoTime();
+        return namespaces;
     }
 }
@@ -0,0 +1,83 @@
+package com.bjornp.kubewatt.collector.container;
+
+import com.bjornp.kubewatt.model.PodMetadata;
+import com.bjornp.kubewatt.model.Workload;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.BatchV1Api;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1OwnerReference;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/// Resolves pods to their top-level workload by following the controller owner-reference chain, e.g.
+/// Pod -> ReplicaSet -> Deployment or Pod -> Job -> CronJob. The pod's own owner comes from the pod lists made during
+/// utilization collection. Only the intermediate ReplicaSets and Jobs are read from the API, once each, after which
+/// their owner is kept in memory. Pods are therefore resolved without any API calls in the steady state.
+@Slf4j
+public class OwnerReferenceCache {
+    /// Upper bound on the cached intermediate owners. ReplicaSets are replaced on every rollout, so old entries must eventually go.
+    private static final int MAX_ENTRIES = 10_000;
+
+    /// Key 'kind/namespace/name' of a ReplicaSet or Job; value is its controller, or empty if it has none.
+    private final Map<String, Optional<Workload>> parents = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Optional<Workload>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final AppsV1Api appsApi = new AppsV1Api();
+
+    private final BatchV1Api batchApi = new BatchV1Api();
+
+    public synchronized Workload resolve(String namespace, String podName, PodMetadata pod) {
+        if (pod.ownerKind() == null || pod.ownerName() == null) {
+            return new Workload("Pod", podName);
+        }
+
+        var owner = new Workload(pod.ownerKind(), pod.ownerName());
+        // only ReplicaSets and Jobs are commonly owned by another controller; StatefulSets, DaemonSets etc. are top-level
+        if (!owner.kind().equals("ReplicaSet") && !owner.kind().equals("Job")) {
+            return owner;
+        }
+
+        var key = "%s/%s/%s".formatted(owner.kind(), namespace, owner.name());
+        var parent = parents.get(key);
+        if (parent == null) {
+            try {
+                parent = readController(owner, namespace);
+                parents.put(key, parent);
+            } catch (ApiException e) {
+                if (e.getCode() == 404) {
+                    // deleted in the meantime; remember so we do not keep asking
+                    parents.put(key, Optional.empty());
+                } else {
+                    log.debug("Unable to read owner of {}; trying again next time", key, e);
+                }
+                parent = Optional.empty();
+            }
+        }
+        return parent.orElse(owner);
+    }
+
+    private Optional<Workload> readController(Workload owner, String namespace) throws ApiException {
+        V1ObjectMeta metadata = switch (owner.kind()) {
+            case "ReplicaSet" -> appsApi.readNamespacedReplicaSet(owner.name(), namespace).execute().getMetadata();
+            case "Job" -> batchApi.readNamespacedJob(owner.name(), namespace).execute().getMetadata();
+            default -> throw new IllegalArgumentException("Unexpected owner kind " + owner.kind());
+        };
+        return controllerOf(metadata.getOwnerReferences()).map(ref -> new Workload(ref.getKind(), ref.getName()));
+    }
+
+    static Optional<V1OwnerReference> controllerOf(List<V1OwnerReference> ownerReferences) {
+        if (ownerReferences == null) {
+            return Optional.empty();
+        }
+        return ownerReferences.stream().filter(ref -> Boolean.TRUE.equals(ref.getController())).findFirst();
+    }
+}
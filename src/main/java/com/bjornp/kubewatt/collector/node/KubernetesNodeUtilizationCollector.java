@@ -1,34 +1,43 @@
 package com.bjornp.kubewatt.collector.node;
 
-import com.bjornp.kubewatt.utils.config.Config;
-import io.kubernetes.client.Metrics;
+import com.bjornp.kubewatt.utils.kubernetes.MetricsApiReader;
 import io.kubernetes.client.openapi.ApiException;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Slf4j
 public class KubernetesNodeUtilizationCollector {
+    /// Get the CPU utilization of every known node. Cluster nodes that KubeWatt does not know about are ignored, so
+    /// nodes being added by e.g. the cluster autoscaler do not interrupt collection.
+    /// @throws RuntimeException if any known node has no metrics.
     public Map<String, Double> getNodeCpuUtilization() {
-        try {
-            var metrics = new Metrics().getNodeMetrics().getItems();
-
-            var metricsNodes = metrics.stream().map(metric -> metric.getMetadata().getName()).toList();
-            if (!new HashSet<>(metricsNodes).equals(new HashSet<>(Config.get().collector().nodeNames()))) {
-                throw new RuntimeException(
-                        "Kubernetes cluster does not have the same nodes as configured in KubeWatt. Cluster: %s, KubeWatt: %s".formatted(
-                                metricsNodes,
-                                Config.get().collector().nodeNames()
-                        ));
-            }
+        var nodes = new HashSet<>(NodeRegistry.get().getNodeNames());
+        var result = getNodeCpuUtilization(nodes);
+        if (!result.keySet().equals(nodes)) {
+            throw new RuntimeException(
+                    "Kubernetes cluster does not have all nodes configured in KubeWatt. Cluster: %s, KubeWatt: %s".formatted(
+                            result.keySet(),
+                            nodes
+                    ));
+        }
+        return result;
+    }
 
-            // we go from K8s Quantity -> BigDecimal -> Double. Since the number is about CPU utilization, and we don't
-            // export more CPUs than a double can hold, this is fine.
-            var result = metrics.stream().collect(Collectors.toMap(metric -> metric.getMetadata().getName(),
-                    metric -> metric.getUsage().get("cpu").getNumber().doubleValue()
-            ));
+    /// Get the CPU utilization of the given nodes. Nodes for which the metrics API has no data yet, e.g. because they
+    /// just joined, are left out of the result.
+    public Map<String, Double> getNodeCpuUtilization(Collection<String> requestedNodes) {
+        try {
+            var nodes = new HashSet<>(requestedNodes);
+            var result = new HashMap<String, Double>();
+            new MetricsApiReader().forEachNode((node, cpu) -> {
+                if (nodes.contains(node)) {
+                    result.put(node, cpu);
+                }
+            });
             log.debug("Node utilization collection completed: {}", result);
             return result;
         } catch (ApiException e) {
@@ -0,0 +1,22 @@
+package com.bjornp.kubewatt.collector.node;
+
+import com.bjornp.kubewatt.collector.node.model.ConfiguredNode;
+
+import java.util.List;
+import java.util.Optional;
+
+/// Keeps track of the nodes KubeWatt collects data for. By default these are the `collector.node-names` from the config.
+/// When `collector.discovery` is enabled, nodes are added and removed at runtime as they join and leave the cluster.
+public interface NodeRegistry extends AutoCloseable {
+    static NodeRegistry get() {
+        return NodeRegistryHolder.INSTANCE;
+    }
+
+    /// @return The names of all nodes that currently have a complete configuration.
+    List<String> getNodeNames();
+
+    Optional<ConfiguredNode> getNode(String name);
+
+    @Override
+    void close();
+}
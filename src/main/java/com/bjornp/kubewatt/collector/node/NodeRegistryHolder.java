@@ -0,0 +1,19 @@
+package com.bjornp.kubewatt.collector.node;
+
+import com.bjornp.kubewatt.utils.config.Config;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+class NodeRegistryHolder {
+    static final NodeRegistry INSTANCE;
+
+    static {
+        var discovery = Config.get().collector().discovery();
+        if (discovery != null && discovery.enabled()) {
+            log.info("Node discovery enabled; watching the cluster for nodes");
+            INSTANCE = new WatchingNodeRegistry(discovery);
+        } else {
+            INSTANCE = new StaticNodeRegistry();
+        }
+    }
+}
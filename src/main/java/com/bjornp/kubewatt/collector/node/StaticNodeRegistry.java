@@ -0,0 +1,43 @@
+package com.bjornp.kubewatt.collector.node;
+
+import com.bjornp.kubewatt.collector.node.model.ConfiguredNode;
+import com.bjornp.kubewatt.utils.config.Config;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/// The nodes listed in `collector.node-names`. These never change while KubeWatt is running.
+public class StaticNodeRegistry implements NodeRegistry {
+    private final Map<String, ConfiguredNode> nodes;
+
+    protected StaticNodeRegistry() {
+        this.nodes = Config.get().collector().nodeNames().stream()
+                .collect(Collectors.toMap(node -> node, StaticNodeRegistry::fromConfig));
+    }
+
+    static ConfiguredNode fromConfig(String node) {
+        var staticPower = Config.get().collector().nodeStaticPower();
+        var redfish = Config.get().collector().power().redfish();
+        return new ConfiguredNode(
+                node,
+                staticPower == null ? null : staticPower.get(node),
+                redfish == null ? null : redfish.get(node)
+        );
+    }
+
+    @Override
+    public List<String> getNodeNames() {
+        return Config.get().collector().nodeNames();
+    }
+
+    @Override
+    public Optional<ConfiguredNode> getNode(String name) {
+        return Optional.ofNullable(nodes.get(name));
+    }
+
+    @Override
+    public void close() {
+    }
+}
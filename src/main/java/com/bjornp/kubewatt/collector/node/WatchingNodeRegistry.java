@@ -0,0 +1,210 @@
+package com.bjornp.kubewatt.collector.node;
+
+import com.bjornp.kubewatt.collector.node.model.ConfiguredNode;
+import com.bjornp.kubewatt.utils.Utils;
+import com.bjornp.kubewatt.utils.config.Config;
+import com.bjornp.kubewatt.utils.config.Config.CollectorConfig.DiscoveryConfig;
+import com.bjornp.kubewatt.utils.config.Config.CollectorConfig.PowerConfig.PowerSource;
+import com.bjornp.kubewatt.utils.config.Config.CollectorConfig.PowerConfig.RedfishConfig;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1Node;
+import io.kubernetes.client.openapi.models.V1NodeList;
+import io.prometheus.metrics.core.metrics.Gauge;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/// Watches the cluster's nodes and keeps the set of nodes up to date as nodes join and leave, e.g. through the cluster
+/// autoscaler. The configuration of a node is taken from the static config if the node is listed in
+/// `collector.node-names`; otherwise the first template in `collector.discovery.templates` whose labels match the node
+/// is used. Nodes without a complete configuration are skipped and reported in the `kubewatt_node_unconfigured` metric.
+@Slf4j
+public class WatchingNodeRegistry implements NodeRegistry {
+    private static final Duration SYNC_TIMEOUT = Duration.ofSeconds(30);
+
+    /// Matches `{node}`, `{label:<key>}` and `{annotation:<key>}` placeholders in template strings.
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{(node|label:([^}]+)|annotation:([^}]+))}");
+
+    private final DiscoveryConfig discovery;
+
+    private final Map<String, ConfiguredNode> nodes = new ConcurrentHashMap<>();
+
+    private final Set<String> unconfigured = ConcurrentHashMap.newKeySet();
+
+    private final SharedInformerFactory informerFactory;
+
+    private final Gauge unconfiguredGauge = Gauge.builder()
+            .name("kubewatt_node_unconfigured")
+            .help("Set to 1 for each cluster node that is skipped because no config or template applies to it")
+            .labelNames("node")
+            .register();
+
+    protected WatchingNodeRegistry(DiscoveryConfig discovery) {
+        this.discovery = discovery;
+
+        // watches are long-lived requests; they must not be subject to the default read timeout
+        var client = Utils.kubernetesClient();
+        client.setReadTimeout(0);
+        var api = new CoreV1Api(client);
+
+        informerFactory = new SharedInformerFactory(client);
+        var informer = informerFactory.sharedIndexInformerFor(
+                params -> api.listNode()
+                        .resourceVersion(params.resourceVersion)
+                        .timeoutSeconds(params.timeoutSeconds)
+                        .watch(params.watch)
+                        .buildCall(null),
+                V1Node.class,
+                V1NodeList.class
+        );
+        informer.addEventHandler(new ResourceEventHandler<>() {
+            @Override
+            public void onAdd(V1Node node) {
+                update(node);
+            }
+
+            @Override
+            public void onUpdate(V1Node oldNode, V1Node newNode) {
+                update(newNode);
+            }
+
+            @Override
+            public void onDelete(V1Node node, boolean deletedFinalStateUnknown) {
+                var name = node.getMetadata().getName();
+                if (unconfigured.remove(name)) {
+                    unconfiguredGauge.remove(name);
+                }
+                if (nodes.remove(name) != null) {
+                    log.info("Node {} left the cluster", name);
+                }
+            }
+        });
+        informerFactory.startAllRegisteredInformers();
+
+        var deadline = System.nanoTime() + SYNC_TIMEOUT.toNanos();
+        while (!informer.hasSynced()) {
+            if (System.nanoTime() > deadline) {
+                throw new RuntimeException("Node watch did not sync within %s".formatted(SYNC_TIMEOUT));
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        log.info("Node watch synced; collecting for {}", nodes.keySet());
+    }
+
+    @Override
+    public List<String> getNodeNames() {
+        return nodes.keySet().stream().sorted().toList();
+    }
+
+    @Override
+    public Optional<ConfiguredNode> getNode(String name) {
+        return Optional.ofNullable(nodes.get(name));
+    }
+
+    private void update(V1Node node) {
+        var name = node.getMetadata().getName();
+        var resolved = resolve(node);
+        if (resolved.isEmpty()) {
+            nodes.remove(name);
+            if (unconfigured.add(name)) {
+                log.warn("No config or template applies to node {}; it will be skipped", name);
+                unconfiguredGauge.labelValues(name).set(1);
+            }
+            return;
+        }
+
+        if (unconfigured.remove(name)) {
+            unconfiguredGauge.remove(name);
+        }
+        var previous = nodes.put(name, resolved.get());
+        if (previous == null) {
+            log.info("Node {} joined the cluster", name);
+        } else if (!previous.equals(resolved.get())) {
+            log.info("Config of node {} changed", name);
+        }
+    }
+
+    private Optional<ConfiguredNode> resolve(V1Node node) {
+        var name = node.getMetadata().getName();
+        var collector = Config.get().collector();
+        ConfiguredNode candidate = collector.nodeNames().contains(name) ? StaticNodeRegistry.fromConfig(name) : null;
+
+        if (candidate == null) {
+            var labels = Optional.ofNullable(node.getMetadata().getLabels()).orElse(Map.of());
+            var template = discovery.templates().stream()
+                    .filter(t -> t.matchLabels() == null || labels.entrySet().containsAll(t.matchLabels().entrySet()))
+                    .findFirst();
+            if (template.isEmpty()) {
+                return Optional.empty();
+            }
+            try {
+                var redfish = template.get().redfish();
+                candidate = new ConfiguredNode(
+                        name,
+                        template.get().staticPower(),
+                        redfish == null ? null : new RedfishConfig(
+                                substitute(redfish.host(), node),
+                                redfish.systems(),
+                                substitute(redfish.username(), node),
+                                substitute(redfish.password(), node)
+                        )
+                );
+            } catch (IllegalArgumentException e) {
+                log.debug("Template for node {} could not be applied: {}", name, e.getMessage());
+                return Optional.empty();
+            }
+        }
+
+        if (candidate.staticPower() == null || (collector.power().source() == PowerSource.REDFISH && candidate.redfish() == null)) {
+            return Optional.empty();
+        }
+        return Optional.of(candidate);
+    }
+
+    /// Replace the placeholders in `value` by the node's name, labels or annotations.
+    /// @throws IllegalArgumentException if a referenced label or annotation does not exist on the node.
+    private static String substitute(String value, V1Node node) {
+        var matcher = PLACEHOLDER.matcher(value);
+        var result = new StringBuilder();
+        while (matcher.find()) {
+            String replacement;
+            if (matcher.group(2) != null) {
+                replacement = lookup(node.getMetadata().getLabels(), matcher.group(2), "label");
+            } else if (matcher.group(3) != null) {
+                replacement = lookup(node.getMetadata().getAnnotations(), matcher.group(3), "annotation");
+            } else {
+                replacement = node.getMetadata().getName();
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private static String lookup(Map<String, String> values, String key, String kind) {
+        var value = values == null ? null : values.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException("node has no %s '%s'".formatted(kind, key));
+        }
+        return value;
+    }
+
+    @Override
+    public void close() {
+        informerFactory.stopAllRegisteredInformers();
+    }
+}
@@ -0,0 +1,14 @@
+package com.bjornp.kubewatt.collector.node.model;
+
+import com.bjornp.kubewatt.utils.config.Config;
+import jakarta.annotation.Nullable;
+
+/// A node that KubeWatt collects data for, together with the configuration that applies to it.
+/// @param staticPower The static power of the node. Only known in ESTIMATOR mode.
+/// @param redfish The Redfish config of the node. Only present when the power source is REDFISH.
+public record ConfiguredNode(
+        String name,
+        @Nullable Double staticPower,
+        @Nullable Config.CollectorConfig.PowerConfig.RedfishConfig redfish
+) {
+}
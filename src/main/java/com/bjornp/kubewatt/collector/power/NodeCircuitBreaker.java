@@ -0,0 +1,62 @@
+package com.bjornp.kubewatt.collector.power;
+
+import java.time.Duration;
+import java.util.OptionalDouble;
+
+/// The circuit breaker and last-known-good reading of one node's power source. After a failure the breaker opens and
+/// the source is left alone for a backoff that doubles with every consecutive failure, so a dead BMC costs one timeout
+/// per backoff rather than one per tick. Once the backoff has passed the next poll is a trial; a success closes the
+/// breaker again.
+class NodeCircuitBreaker {
+    private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(15);
+
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+
+    private int failures = 0;
+
+    private long openUntilNanos;
+
+    private double lastWatts = Double.NaN;
+
+    private long lastNanos;
+
+    /// Whether the source must not be polled at `nanos`.
+    boolean isOpen(long nanos) {
+        return failures > 0 && nanos - openUntilNanos < 0;
+    }
+
+    /// Records a successful reading and closes the breaker.
+    /// @return Whether the breaker was open.
+    boolean success(double watts, long nanos) {
+        var wasOpen = failures > 0;
+        failures = 0;
+        lastWatts = watts;
+        lastNanos = nanos;
+        return wasOpen;
+    }
+
+    /// Records a failure and opens the breaker.
+    /// @return How long the breaker stays open.
+    Duration failure(long nanos) {
+        failures++;
+        var backoff = INITIAL_BACKOFF.multipliedBy(1L << Math.min(failures - 1, 16));
+        if (backoff.compareTo(MAX_BACKOFF) > 0) {
+            backoff = MAX_BACKOFF;
+        }
+        openUntilNanos = nanos + backoff.toNanos();
+        return backoff;
+    }
+
+    /// @return The last successful reading if it is at most `maxAge` old at `nanos`.
+    OptionalDouble lastKnownGood(long nanos, Duration maxAge) {
+        if (Double.isNaN(lastWatts) || nanos - lastNanos > maxAge.toNanos()) {
+            return OptionalDouble.empty();
+        }
+        return OptionalDouble.of(lastWatts);
+    }
+
+    /// The age of the last successful reading at `nanos`; only valid if there is one.
+    Duration age(long nanos) {
+        return Duration.ofNanos(nanos - lastNanos);
+    }
+}
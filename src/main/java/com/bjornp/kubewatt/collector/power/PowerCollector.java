@@ -1,8 +1,18 @@
 package com.bjornp.kubewatt.collector.power;
 
+import com.bjornp.kubewatt.collector.node.NodeRegistry;
+
+import java.util.Collection;
 import java.util.Map;
 
 public interface PowerCollector {
     String getName();
-    Map<String, Double> getPowerWatts();
+
+    /// Get the current power draw in Watts of the given nodes only.
+    Map<String, Double> getPowerWatts(Collection<String> nodes);
+
+    /// Get the current power draw in Watts of every known node.
+    default Map<String, Double> getPowerWatts() {
+        return getPowerWatts(NodeRegistry.get().getNodeNames());
+    }
 }
@@ -10,6 +10,8 @@ public class PowerCollectorFactory {
         try {
             return new PowerCollectorProxy(switch (Config.get().collector().power().source()) {
                 case REDFISH -> new RedfishPowerCollector();
+                case RAPL -> new RaplPowerCollector();
+                case PROMETHEUS -> new PrometheusPowerCollector();
                 default -> throw new IllegalStateException("Unexpected PowerCollector source: " + Config.get().collector().power().source());
             });
         } catch (Exception e) {
@@ -2,6 +2,7 @@ package com.bjornp.kubewatt.collector.power;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Collection;
 import java.util.Map;
 
 /// The PowerCollectorProxy can wrap any PowerCollector for debug purposes. It logs how long obtaining power data took.
@@ -22,15 +23,15 @@ public class PowerCollectorProxy implements PowerCollector {
     }
 
     @Override
-    public Map<String, Double> getPowerWatts() {
+    public Map<String, Double> getPowerWatts(Collection<String> nodes) {
         if (log.isDebugEnabled()) {
             var start = System.currentTimeMillis();
-            var pw = powerCollector.getPowerWatts();
+            var pw = powerCollector.getPowerWatts(nodes);
             var end = System.currentTimeMillis();
             log.debug("Power collection completed in {} ms\t {}", end - start, pw);
             return pw;
         } else {
-            return powerCollector.getPowerWatts();
+            return powerCollector.getPowerWatts(nodes);
         }
     }
 }
@@ -0,0 +1,207 @@
+package com.bjornp.kubewatt.collector.power;
+
+import com.bjornp.kubewatt.collector.power.prometheus.QueryResultParser;
+import com.bjornp.kubewatt.utils.config.Config;
+import com.bjornp.kubewatt.utils.config.Config.CollectorConfig.PowerConfig.PrometheusConfig;
+import com.bjornp.kubewatt.utils.config.Mode;
+import com.bjornp.kubewatt.utils.prometheus.ExpositionParser;
+import com.bjornp.kubewatt.utils.prometheus.SampleVisitor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/// Reads power from a metric that existing exporters already expose, such as `ipmi_dcmi_power_consumption_watts` of
+/// ipmi_exporter or the outlet power of an SNMP exporter for PDUs, so the BMCs are not polled a second time. The metric
+/// is scraped from `collector.power.prometheus.targets` or queried from the Prometheus server at
+/// `collector.power.prometheus.query-url`. The samples of each node are summed.
+///
+/// In a target containing `{node}`, the placeholder is replaced by the keys of `node-map` that map to the node, such as
+/// the addresses of its BMCs, or by the node name if there are none.
+///
+/// Like [RedfishPowerCollector], in ESTIMATOR mode a target that fails costs only the nodes it reports on, and is not
+/// asked again until its [Backoff] has passed; the INIT modes fail instead.
+@Slf4j
+public class PrometheusPowerCollector implements PowerCollector {
+    private final PrometheusConfig config;
+
+    /// Whether a failing URL is skipped rather than failing the collection
+    private final boolean skipFailures;
+
+    private final OkHttpClient client;
+
+    private final ExpositionParser parser;
+
+    /// The values of `node-label` of each node in `node-map`, which are what `{node}` is replaced with
+    private final Map<String, List<String>> nodeTargets = new HashMap<>();
+
+    /// By target URL, or by query URL
+    private final Map<String, Backoff> backoffs = new HashMap<>();
+
+    /// Keeps a failing URL from being asked again for a time that doubles with every consecutive failure.
+    private static class Backoff {
+        private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(15);
+
+        private static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+
+        private int failures = 0;
+
+        private long retryAtNanos;
+
+        /// Whether the URL must not be asked at `nanos`.
+        private boolean isWaiting(long nanos) {
+            return failures > 0 && nanos - retryAtNanos < 0;
+        }
+
+        /// @return Whether the URL was failing.
+        private boolean success() {
+            var wasFailing = failures > 0;
+            failures = 0;
+            return wasFailing;
+        }
+
+        /// @return How long the URL is not asked.
+        private Duration failure(long nanos) {
+            failures++;
+            var backoff = INITIAL_BACKOFF.multipliedBy(1L << Math.min(failures - 1, 16));
+            if (backoff.compareTo(MAX_BACKOFF) > 0) {
+                backoff = MAX_BACKOFF;
+            }
+            retryAtNanos = nanos + backoff.toNanos();
+            return backoff;
+        }
+    }
+
+    protected PrometheusPowerCollector() {
+        this(Config.get().collector().power().prometheus(), Config.get().mode() == Mode.ESTIMATOR);
+    }
+
+    /// @param skipFailures Whether a failing URL is skipped, as in ESTIMATOR mode, rather than failing the collection.
+    PrometheusPowerCollector(PrometheusConfig config, boolean skipFailures) {
+        this.config = config;
+        this.skipFailures = skipFailures;
+        config.nodeMapOrDefault().forEach((value, node) -> nodeTargets.computeIfAbsent(node, key -> new ArrayList<>()).add(value));
+        nodeTargets.values().forEach(values -> values.sort(null));
+        this.client = new OkHttpClient.Builder()
+                .callTimeout(Duration.ofMillis(config.timeoutMillisOrDefault()))
+                .build();
+        this.parser = new ExpositionParser(config.metric());
+        log.info("Successfully initialized PrometheusPowerCollector");
+    }
+
+    @Override
+    public String getName() {
+        return "prometheus";
+    }
+
+    @Override
+    public synchronized Map<String, Double> getPowerWatts(Collection<String> nodes) {
+        var requested = new HashSet<>(nodes);
+        Map<String, Double> powerWatts = new HashMap<>();
+        var used = new HashSet<String>();
+        if (config.queryUrl() != null) {
+            var url = HttpUrl.get(config.queryUrl()).newBuilder()
+                    .addPathSegments("api/v1/query")
+                    .addQueryParameter("query", selector())
+                    .build()
+                    .toString();
+            used.add(url);
+            read(url, false, powerWatts, (result, labels, watts) -> add(result, requested, labels, watts));
+        } else {
+            for (var target : config.targets()) {
+                if (target.contains("{node}")) {
+                    for (var node : requested) {
+                        for (var value : nodeTargets.getOrDefault(node, List.of(node))) {
+                            var url = target.replace("{node}", value);
+                            used.add(url);
+                            read(url, true, powerWatts, (result, labels, watts) -> result.merge(node, watts, Double::sum));
+                        }
+                    }
+                } else {
+                    used.add(target);
+                    read(target, true, powerWatts, (result, labels, watts) -> add(result, requested, labels, watts));
+                }
+            }
+        }
+        backoffs.keySet().retainAll(used);
+        return powerWatts;
+    }
+
+    /// Adds a sample to the node named by its node label, if that node is requested.
+    private void add(Map<String, Double> powerWatts, Set<String> requested, Map<String, String> labels, double watts) {
+        var value = labels.get(config.nodeLabelOrDefault());
+        if (value == null) {
+            return;
+        }
+        var node = config.nodeMapOrDefault().getOrDefault(value, value);
+        if (requested.contains(node)) {
+            powerWatts.merge(node, watts, Double::sum);
+        }
+    }
+
+    @FunctionalInterface
+    private interface NodeSample {
+        void add(Map<String, Double> powerWatts, Map<String, String> labels, double watts);
+    }
+
+    /// Adds the samples of `url` that carry the match labels to `powerWatts`, all or none. A failing URL is skipped in
+    /// ESTIMATOR mode.
+    /// @param exposition Whether `url` serves the text exposition format rather than a query result.
+    private void read(String url, boolean exposition, Map<String, Double> powerWatts, NodeSample sample) {
+        var backoff = backoffs.computeIfAbsent(url, key -> new Backoff());
+        if (backoff.isWaiting(System.nanoTime())) {
+            return;
+        }
+        var request = new Request.Builder()
+                .url(url)
+                .addHeader("Accept", exposition ? "text/plain;version=0.0.4" : "application/json")
+                .build();
+        // kept apart until the whole response is read, so a response that breaks off adds nothing
+        var result = new HashMap<String, Double>();
+        SampleVisitor matching = (labels, watts) -> {
+            if (labels.entrySet().containsAll(config.matchLabelsOrDefault().entrySet())) {
+                sample.add(result, labels, watts);
+            }
+        };
+        try (var response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response " + response);
+            }
+            if (exposition) {
+                parser.parse(response.body().byteStream(), matching);
+            } else {
+                QueryResultParser.parse(response.body().charStream(), matching);
+            }
+            result.forEach((node, watts) -> powerWatts.merge(node, watts, Double::sum));
+            if (backoff.success()) {
+                log.info("Power metrics at {} recovered", url);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!skipFailures) {
+                throw new RuntimeException("Unable to read power metrics at " + url, e);
+            }
+            log.warn("Unable to read power metrics at {}; not reading them for {} s", url, backoff.failure(System.nanoTime()).toSeconds(), e);
+        }
+    }
+
+    /// The PromQL selector of the metric with its match labels, e.g. `ipmi_dcmi_power_consumption_watts{job="ipmi"}`.
+    private String selector() {
+        if (config.matchLabelsOrDefault().isEmpty()) {
+            return config.metric();
+        }
+        return config.matchLabelsOrDefault().entrySet().stream()
+                .map(entry -> "%s=\"%s\"".formatted(entry.getKey(), entry.getValue().replace("\\", "\\\\").replace("\"", "\\\"")))
+                .collect(Collectors.joining(",", config.metric() + "{", "}"));
+    }
+}
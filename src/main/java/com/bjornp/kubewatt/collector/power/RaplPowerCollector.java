@@ -0,0 +1,100 @@
+package com.bjornp.kubewatt.collector.power;
+
+import com.bjornp.kubewatt.collector.power.rapl.RaplAgent;
+import com.bjornp.kubewatt.utils.config.Config;
+import com.bjornp.kubewatt.utils.config.Mode;
+import com.google.gson.JsonParser;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/// Reads the power of each node from the [RaplAgent] running on it, at `collector.power.rapl.agent-url`. An agent keeps
+/// a running energy total, so the power of a node is the energy it used since the previous collection divided by the
+/// agent's own time between the two samples: the average over the whole interval rather than a single reading. The
+/// first collection of a node, and the first after its agent restarted, uses the agent's latest sample instead.
+///
+/// Like [RedfishPowerCollector], in ESTIMATOR mode a node whose agent fails is left out and not asked again until its
+/// [NodeCircuitBreaker] allows it; the INIT modes fail instead.
+@Slf4j
+public class RaplPowerCollector implements PowerCollector {
+    private final Config.CollectorConfig.PowerConfig.RaplConfig config;
+
+    private final OkHttpClient client;
+
+    private final Map<String, Reading> readings = new HashMap<>();
+
+    private final Map<String, NodeCircuitBreaker> breakers = new HashMap<>();
+
+    private record Reading(double energyJoules, double seconds) {
+    }
+
+    protected RaplPowerCollector() {
+        this.config = Config.get().collector().power().rapl();
+        this.client = new OkHttpClient.Builder()
+                .callTimeout(Duration.ofMillis(config.timeoutMillisOrDefault()))
+                .build();
+        log.info("Successfully initialized RaplPowerCollector");
+    }
+
+    @Override
+    public String getName() {
+        return "rapl";
+    }
+
+    @Override
+    public synchronized Map<String, Double> getPowerWatts(Collection<String> nodes) {
+        var requested = new HashSet<>(nodes);
+        readings.keySet().retainAll(requested);
+        breakers.keySet().retainAll(requested);
+
+        var estimator = Config.get().mode() == Mode.ESTIMATOR;
+        Map<String, Double> powerWatts = new HashMap<>();
+        for (var node : requested) {
+            var breaker = breakers.computeIfAbsent(node, key -> new NodeCircuitBreaker());
+            if (breaker.isOpen(System.nanoTime())) {
+                continue;
+            }
+            try {
+                var watts = read(node);
+                if (breaker.success(watts, System.nanoTime())) {
+                    log.info("RAPL agent of node {} recovered", node);
+                }
+                powerWatts.put(node, watts);
+            } catch (IOException | RuntimeException e) {
+                if (!estimator) {
+                    throw new RuntimeException("Unable to get power from RAPL agent", e);
+                }
+                log.warn("Unable to get power of node {}; not asking its agent for {} s", node, breaker.failure(System.nanoTime()).toSeconds(), e);
+            }
+        }
+        return powerWatts;
+    }
+
+    private double read(String node) throws IOException {
+        var request = new Request.Builder()
+                .url(config.agentUrl().replace("{node}", node))
+                .addHeader("Accept", "application/json")
+                .build();
+        try (var response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response from RAPL agent " + response);
+            }
+            var sample = JsonParser.parseString(response.body().string()).getAsJsonObject();
+            var energy = sample.get("energy-joules").getAsDouble();
+            var seconds = sample.get("seconds").getAsDouble();
+            var previous = readings.put(node, new Reading(energy, seconds));
+            if (previous == null || seconds <= previous.seconds() || energy < previous.energyJoules()) {
+                // no usable previous sample: the first collection, the agent restarted or has not sampled since
+                return sample.get("watts").getAsDouble();
+            }
+            return (energy - previous.energyJoules()) / (seconds - previous.seconds());
+        }
+    }
+}
@@ -1,23 +1,76 @@
 package com.bjornp.kubewatt.collector.power;
 
+import com.bjornp.kubewatt.collector.node.NodeRegistry;
+import com.bjornp.kubewatt.collector.node.model.ConfiguredNode;
 import com.bjornp.kubewatt.collector.power.redfish.RedfishClient;
+import com.bjornp.kubewatt.startup.StartupPhases;
 import com.bjornp.kubewatt.utils.config.Config;
+import com.bjornp.kubewatt.utils.config.Config.CollectorConfig.PowerConfig.RedfishConfig;
+import com.bjornp.kubewatt.utils.config.Mode;
+import io.prometheus.metrics.core.metrics.Gauge;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/// Polls Redfish for each requested node. Clients are created the first time a node is requested, so a replica that
+/// owns only part of the nodes never connects to the BMCs of the other nodes. Clients of nodes that are no longer
+/// requested, e.g. because they left the cluster, are dropped. A client is recreated when the node's config changes.
+///
+/// New clients are initialized concurrently, each within `collector.power.redfish-timeout-seconds`, so startup takes
+/// as long as the slowest BMC rather than the sum of all of them. A client that fails or times out is closed, so the
+/// session it may have created on the BMC is deleted before the client is created again. In ESTIMATOR mode, a node whose
+/// client cannot be initialized is skipped and retried in the next collection; the INIT modes need every node and fail
+/// instead.
+///
+/// In ESTIMATOR mode each node has a [NodeCircuitBreaker], so a failing BMC only costs its own node's data. After a
+/// failure the BMC is not contacted again until its backoff has passed, and meanwhile its last successful reading is
+/// used for up to `collector.power.redfish-max-reading-age-seconds`. After that the node has no power until its BMC
+/// recovers. The age of the reading used for each node is exported as `kubewatt_power_reading_age_seconds`.
+///
+/// When KubeWatt stops, a shutdown hook logs out of every BMC without waiting for a running collection, which stops
+/// polling at the next node.
 @Slf4j
 public class RedfishPowerCollector implements PowerCollector {
-    private final Map<String, RedfishClient> redfishClients = new HashMap<>();
+    private static final Gauge readingAgeGauge = Gauge.builder()
+            .name("kubewatt_power_reading_age_seconds")
+            .help("Age of the power reading used for each node; above zero while its last reading is reused after a failure")
+            .labelNames("node")
+            .register();
 
-    protected RedfishPowerCollector() throws IOException {
-        var nodes = Config.get().collector().nodeNames();
-        for (String node : nodes) {
-            redfishClients.put(node, new RedfishClient(node));
-        }
+    /// Concurrent, so the shutdown hook can close the clients while a collection holds the monitor
+    private final Map<String, RedfishClient> redfishClients = new ConcurrentHashMap<>();
+
+    private final Map<String, RedfishConfig> clientConfigs = new HashMap<>();
+
+    private final Map<String, NodeCircuitBreaker> breakers = new HashMap<>();
+
+    /// Initialization mostly waits on the network, which virtual threads are made for
+    private final ExecutorService initExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private boolean initialized = false;
+
+    /// Set by the shutdown hook; a collection then stops polling and closes any client it creates
+    private volatile boolean closing = false;
+
+    /// A client whose [RedfishClient#connect()] is running
+    private record PendingClient(RedfishClient client, Future<?> connection) {
+    }
 
+    protected RedfishPowerCollector() {
+        // log out of every BMC when KubeWatt stops, so sessions do not pile up until the BMCs expire them
+        Runtime.getRuntime().addShutdownHook(Thread.ofPlatform().name("redfish-logout").unstarted(this::closeClients));
         log.info("Successfully initialized RedfishPowerCollector");
     }
 
@@ -27,15 +80,141 @@ public class RedfishPowerCollector implements PowerCollector {
     }
 
     @Override
-    public Map<String, Double> getPowerWatts() {
+    public synchronized Map<String, Double> getPowerWatts(Collection<String> nodes) {
+        var requested = new HashSet<>(nodes);
+        var released = redfishClients.entrySet().removeIf(entry -> {
+            if (requested.contains(entry.getKey())) {
+                return false;
+            }
+            entry.getValue().close();
+            return true;
+        });
+        if (released) {
+            clientConfigs.keySet().retainAll(requested);
+            log.info("Released Redfish clients; now polling {}", redfishClients.keySet());
+        }
+        breakers.keySet().removeIf(node -> {
+            if (requested.contains(node)) {
+                return false;
+            }
+            readingAgeGauge.remove(node);
+            return true;
+        });
+
+        var configs = new HashMap<String, RedfishConfig>();
+        for (var node : requested) {
+            var config = NodeRegistry.get().getNode(node).map(ConfiguredNode::redfish).orElse(null);
+            if (config == null) {
+                log.debug("No Redfish config for node {}; skipping", node);
+                continue;
+            }
+            configs.put(node, config);
+            breakers.computeIfAbsent(node, key -> new NodeCircuitBreaker());
+        }
+        initClients(configs);
+
+        var estimator = Config.get().mode() == Mode.ESTIMATOR;
+        var maxAge = Duration.ofSeconds(Config.get().collector().power().redfishMaxReadingAgeSecondsOrDefault());
         Map<String, Double> powerWatts = new HashMap<>();
-        for (var entry : redfishClients.entrySet()) {
-            try {
-                powerWatts.put(entry.getKey(), (double) entry.getValue().getTotalPowerWatts());
-            } catch (IOException e) {
-                throw new RuntimeException("Unable to get power from Redfish client", e);
+        for (var node : configs.keySet()) {
+            if (closing) {
+                break;
+            }
+            var breaker = breakers.get(node);
+            var client = redfishClients.get(node);
+            if (client != null && !breaker.isOpen(System.nanoTime())) {
+                try {
+                    var watts = (double) client.getTotalPowerWatts();
+                    if (breaker.success(watts, System.nanoTime())) {
+                        log.info("Redfish service of node {} recovered", node);
+                    }
+                    powerWatts.put(node, watts);
+                    readingAgeGauge.labelValues(node).set(0);
+                    continue;
+                } catch (IOException | RuntimeException e) {
+                    if (!estimator) {
+                        throw new RuntimeException("Unable to get power from Redfish client", e);
+                    }
+                    log.warn("Unable to get power of node {}; not polling it for {} s", node, breaker.failure(System.nanoTime()).toSeconds(), e);
+                }
+            }
+
+            var now = System.nanoTime();
+            var lastKnownGood = breaker.lastKnownGood(now, maxAge);
+            if (lastKnownGood.isPresent()) {
+                powerWatts.put(node, lastKnownGood.getAsDouble());
+                readingAgeGauge.labelValues(node).set(breaker.age(now).toNanos() / 1e9);
+            } else {
+                readingAgeGauge.remove(node);
             }
         }
         return powerWatts;
     }
+
+    /// Creates the clients of nodes that have none or whose config changed, concurrently. Nodes whose breaker is open
+    /// are not tried.
+    private void initClients(Map<String, RedfishConfig> configs) {
+        var pending = new HashMap<String, PendingClient>();
+        var now = System.nanoTime();
+        configs.forEach((node, config) -> {
+            if (breakers.get(node).isOpen(now)) {
+                return;
+            }
+            if (!redfishClients.containsKey(node) || !config.equals(clientConfigs.get(node))) {
+                var client = new RedfishClient(node, config);
+                pending.put(node, new PendingClient(client, initExecutor.submit(() -> {
+                    client.connect();
+                    return null;
+                })));
+            }
+        });
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        var start = System.nanoTime();
+        // all clients start at the same time, so they share a single deadline
+        var deadline = start + TimeUnit.SECONDS.toNanos(Config.get().collector().power().redfishTimeoutSecondsOrDefault());
+        var failed = new HashSet<String>();
+        pending.forEach((node, client) -> {
+            try {
+                client.connection().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                var previous = redfishClients.put(node, client.client());
+                if (previous != null) {
+                    previous.close();
+                }
+                clientConfigs.put(node, configs.get(node));
+                if (closing) {
+                    // the shutdown hook may have closed the clients before this one was added
+                    client.client().close();
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                client.connection().cancel(true);
+                // A connect() that timed out may still be creating a session; once closed, the client deletes that
+                // session as soon as it is created. Deleting a session waits on the BMC, so it runs off this thread.
+                initExecutor.execute(client.client()::close);
+                failed.add(node);
+                var backoff = breakers.get(node).failure(System.nanoTime());
+                log.error("Unable to initialize Redfish client of node {}; retrying in {} s", node, backoff.toSeconds(), e instanceof ExecutionException ? e.getCause() : e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        });
+        log.info("Initialized {} Redfish clients in {} ms", pending.size() - failed.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (!initialized) {
+            initialized = true;
+            StartupPhases.record("redfish_clients", Duration.ofNanos(System.nanoTime() - start));
+        }
+
+        if (!failed.isEmpty() && Config.get().mode() != Mode.ESTIMATOR) {
+            throw new RuntimeException("Unable to initialize Redfish clients of nodes " + failed);
+        }
+    }
+
+    /// Runs in the shutdown hook. Does not take the monitor, so it does not wait for a running collection.
+    private void closeClients() {
+        closing = true;
+        redfishClients.values().forEach(RedfishClient::close);
+    }
 }
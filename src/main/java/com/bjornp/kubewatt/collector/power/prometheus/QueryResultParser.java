@@ -0,0 +1,81 @@
+package com.bjornp.kubewatt.collector.power.prometheus;
+
+import com.bjornp.kubewatt.utils.prometheus.SampleVisitor;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/// Reads the samples of an instant vector from the response of a Prometheus `/api/v1/query`, e.g.
+/// `{"status":"success","data":{"resultType":"vector","result":[{"metric":{"node":"node-1"},"value":[1700000000,"212"]}]}}`.
+/// The response is decoded while it streams in.
+@UtilityClass
+public class QueryResultParser {
+    /// Passes every sample of the result to `visitor`. Samples that are not a number are skipped.
+    /// @throws IOException if the response cannot be read or the query failed.
+    public static void parse(Reader in, SampleVisitor visitor) throws IOException {
+        try (var reader = new JsonReader(in)) {
+            String status = null;
+            String error = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "status" -> status = reader.nextString();
+                    case "error" -> error = reader.nextString();
+                    case "data" -> readData(reader, visitor);
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (!"success".equals(status)) {
+                throw new IOException("Prometheus query failed: " + error);
+            }
+        }
+    }
+
+    private static void readData(JsonReader reader, SampleVisitor visitor) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("result") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Map<String, String> labels = new HashMap<>();
+                var value = Double.NaN;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "metric" -> {
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                labels.put(reader.nextName(), reader.nextString());
+                            }
+                            reader.endObject();
+                        }
+                        case "value" -> {
+                            reader.beginArray();
+                            reader.skipValue();
+                            // Prometheus writes sample values as strings, including "+Inf" and "NaN"
+                            var token = reader.nextString();
+                            value = token.endsWith("Inf") ? Double.parseDouble(token + "inity") : Double.parseDouble(token);
+                            reader.endArray();
+                        }
+                        default -> reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (!Double.isNaN(value)) {
+                    visitor.accept(labels, value);
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,75 @@
+package com.bjornp.kubewatt.collector.power.rapl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/// Samples the RAPL counters of the node it runs on at a fixed interval, which may be well below a second. Sampling
+/// often keeps every counter from wrapping more than once between reads; the energy is accumulated across samples, so
+/// readers see a counter that never wraps.
+@Slf4j
+public class RaplAgent implements AutoCloseable {
+    private final RaplReader reader;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final long startNanos = System.nanoTime();
+
+    /// The last sample; only used by the sampling thread
+    private Sample previous;
+
+    private volatile Sample latest;
+
+    /// @param energyJoules The energy used since the agent started.
+    /// @param seconds The time of the sample, in seconds since the agent started.
+    /// @param watts The average power since the previous sample.
+    public record Sample(double energyJoules, double seconds, double watts) {
+    }
+
+    public RaplAgent(RaplReader reader) {
+        this.reader = reader;
+    }
+
+    /// Starts sampling every `interval`.
+    /// @return The future of the sampling task; it only completes if the agent is closed.
+    public ScheduledFuture<?> start(Duration interval) {
+        log.info("Sampling RAPL every {} ms", interval.toMillis());
+        return scheduler.scheduleAtFixedRate(this::sample, 0, interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /// The last sample, or empty before the first two reads.
+    public Optional<Sample> latest() {
+        return Optional.ofNullable(latest);
+    }
+
+    private void sample() {
+        sample((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    /// Reads the counters as if `seconds` had passed since the agent started.
+    void sample(double seconds) {
+        try {
+            var energy = reader.read();
+            if (previous == null) {
+                // the first read only sets the baseline of each counter
+                previous = new Sample(energy, seconds, Double.NaN);
+            } else if (seconds > previous.seconds()) {
+                previous = new Sample(energy, seconds, (energy - previous.energyJoules()) / (seconds - previous.seconds()));
+                latest = previous;
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read RAPL counters", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,113 @@
+package com.bjornp.kubewatt.collector.power.rapl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/// Reads the energy counters of the RAPL zones under a powercap directory, normally `/sys/class/powercap`. Intel and
+/// AMD CPUs both appear as `intel-rapl:<package>` zones, with subzones `intel-rapl:<package>:<n>`. The energy of a
+/// package includes its cores and uncore, but not its DRAM, so the packages are summed together with their `dram`
+/// subzones. A `psys` zone covers the whole platform and is used on its own if present. The `intel-rapl-mmio` zones
+/// report the same packages again and are ignored.
+///
+/// Each `energy_uj` counter wraps to zero after `max_energy_range_uj`; a decrease between two reads is counted as one
+/// wrap. A counter can therefore wrap at most once between reads, which at the power of a large server takes tens of
+/// seconds.
+///
+/// The directory can be any tree with the same layout, e.g. a fake one for testing.
+@Slf4j
+public class RaplReader {
+    private static final Pattern ZONE = Pattern.compile("[a-z-]+:\\d+");
+
+    private static final Pattern SUBZONE = Pattern.compile("[a-z-]+:\\d+:\\d+");
+
+    private final List<Zone> zones;
+
+    private long microJoules = 0;
+
+    private static class Zone {
+        private final Path energy;
+
+        private final long maxRange;
+
+        /// The previous value of the counter, or -1 before the first read
+        private long previous = -1;
+
+        private Zone(Path directory) throws IOException {
+            this.energy = directory.resolve("energy_uj");
+            this.maxRange = readLong(directory.resolve("max_energy_range_uj"));
+        }
+    }
+
+    /// @throws IOException if the directory contains no RAPL zones or a zone cannot be read.
+    public RaplReader(Path powercap) throws IOException {
+        var packages = new ArrayList<Path>();
+        var subzones = new ArrayList<Path>();
+        Path psys = null;
+        try (var entries = Files.list(powercap)) {
+            for (var directory : entries.sorted().toList()) {
+                var fileName = directory.getFileName().toString();
+                if (fileName.contains("mmio") || !Files.exists(directory.resolve("energy_uj"))) {
+                    continue;
+                }
+                if (ZONE.matcher(fileName).matches()) {
+                    if (name(directory).equals("psys")) {
+                        psys = directory;
+                    } else {
+                        packages.add(directory);
+                    }
+                } else if (SUBZONE.matcher(fileName).matches() && name(directory).equals("dram")) {
+                    subzones.add(directory);
+                }
+            }
+        }
+
+        var selected = new ArrayList<Path>();
+        if (psys != null) {
+            selected.add(psys);
+        } else {
+            selected.addAll(packages);
+            selected.addAll(subzones);
+        }
+        if (selected.isEmpty()) {
+            throw new IOException("No RAPL zones found in " + powercap);
+        }
+        zones = new ArrayList<>();
+        for (var directory : selected) {
+            zones.add(new Zone(directory));
+        }
+        log.info("Reading RAPL zones {}", selected.stream().map(path -> path.getFileName().toString()).toList());
+    }
+
+    /// Reads all counters.
+    /// @return The energy used by all zones since the first read, in joules.
+    public synchronized double read() throws IOException {
+        for (var zone : zones) {
+            var value = readLong(zone.energy);
+            if (zone.previous >= 0) {
+                var delta = value - zone.previous;
+                microJoules += delta >= 0 ? delta : delta + zone.maxRange;
+            }
+            zone.previous = value;
+        }
+        return microJoules / 1e6;
+    }
+
+    private static String name(Path directory) throws IOException {
+        var file = directory.resolve("name");
+        return Files.exists(file) ? Files.readString(file).trim() : "";
+    }
+
+    private static long readLong(Path file) throws IOException {
+        try {
+            return Long.parseLong(Files.readString(file).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Unable to read " + file, e);
+        }
+    }
+}
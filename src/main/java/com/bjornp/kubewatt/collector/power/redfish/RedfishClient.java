@@ -2,19 +2,52 @@ package com.bjornp.kubewatt.collector.power.redfish;
 
 import com.bjornp.kubewatt.collector.power.redfish.model.RedfishComputerSystem;
 import com.bjornp.kubewatt.collector.power.redfish.model.RedfishPowerControl;
+import com.bjornp.kubewatt.jfr.RedfishRequestEvent;
 import com.bjornp.kubewatt.utils.config.Config;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.prometheus.metrics.core.metrics.Counter;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 
 import javax.net.ssl.*;
 import java.io.IOException;
+import java.io.Serial;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
+/// Reads power from a node's BMC. Requests are authenticated with a Redfish session: the password is checked once
+/// when the session is created rather than on every request, which takes BMCs hundreds of milliseconds. The session is
+/// replaced when the BMC rejects its token or when it has been idle for longer than the session timeout, and deleted by
+/// [#close()]. BMCs without a session service are sent Basic credentials instead.
+///
+/// Constructing a client does not contact the BMC; [#connect()] does, and must be followed by [#close()] whether it
+/// succeeds or not.
+///
+/// BMCs refresh their power sensors every few seconds or slower. With `collector.power.redfish-adaptive-polling`, each
+/// client learns the refresh cadence of its node's reading (see [SensorCadence]) and does not poll while the reading
+/// cannot have changed, returning the previous reading instead. Responses with an `ETag` are cached and requested again
+/// with `If-None-Match`, so a reading that did not change is answered with an empty 304.
 @Slf4j
-public class RedfishClient {
+public class RedfishClient implements AutoCloseable {
+    private static final String SESSIONS = "/redfish/v1/SessionService/Sessions";
+
+    /// The session timeout assumed when the BMC does not report one; the minimum the Redfish specification allows
+    private static final long DEFAULT_SESSION_TIMEOUT_SECONDS = 30;
+
+    private static final Counter readsCounter = Counter.builder()
+            .name("kubewatt_redfish_power_reads_total")
+            .help("Power readings of Redfish clients, by whether the BMC was polled or the previous reading was reused")
+            .labelNames("outcome")
+            .register();
+
+    private final String node;
+
     private final String host;
 
     private final String username;
@@ -25,11 +58,48 @@ public class RedfishClient {
 
     private final OkHttpClient client;
 
-    public RedfishClient(String node) throws IOException {
-        this.host = Config.get().collector().power().redfish().get(node).host();
-        this.username = Config.get().collector().power().redfish().get(node).username();
-        this.password = Config.get().collector().power().redfish().get(node).password();
-        this.systems = Config.get().collector().power().redfish().get(node).systems();
+    /// The query that returns the Power resource of every chassis in one response, or `null` if the BMC does not
+    /// support it and each system is read separately.
+    private String batchQuery;
+
+    /// Whether the BMC supports `$select`, so only the readings we use are transferred.
+    private boolean selectSupported;
+
+    /// Guards the session state below. It is never held during a request, so [#close()] does not wait for a slow BMC
+    /// and virtual threads are not pinned while they wait for a response.
+    private final ReentrantLock sessionLock = new ReentrantLock();
+
+    /// `null` while there is no session; requests then use Basic authentication
+    private Session session;
+
+    private boolean sessionsSupported = true;
+
+    /// Set by [#close()]; a closed client creates no new sessions
+    private boolean closed = false;
+
+    private long sessionTimeoutNanos = Duration.ofSeconds(DEFAULT_SESSION_TIMEOUT_SECONDS).toNanos();
+
+    private long lastUsedNanos;
+
+    private final SensorCadence cadence = new SensorCadence();
+
+    /// Responses that had an `ETag`, by path
+    private final Map<String, CachedResponse> cachedResponses = new HashMap<>();
+
+    private record CachedResponse(String etag, String body) {
+    }
+
+    /// @param url The URL of the session, to delete it; `null` if the BMC did not report it
+    private record Session(String token, String url) {
+    }
+
+    /// @param node The node whose BMC this client talks to. Only used for diagnostics.
+    public RedfishClient(String node, Config.CollectorConfig.PowerConfig.RedfishConfig config) {
+        this.node = node;
+        this.host = config.host();
+        this.username = config.username();
+        this.password = config.password();
+        this.systems = config.systems();
 
         // Set up OkHttp to accept self-signed certificates. Redfish interfaces do not often sign certs.
         X509TrustManager TRUST_ALL_CERTS = new X509TrustManager() {
@@ -52,58 +122,362 @@ public class RedfishClient {
             sslContext.init(null, new TrustManager[]{TRUST_ALL_CERTS}, new java.security.SecureRandom());
 
             client = new OkHttpClient.Builder()
+                    .callTimeout(Duration.ofSeconds(Config.get().collector().power().redfishTimeoutSecondsOrDefault()))
                     .sslSocketFactory(sslContext.getSocketFactory(), TRUST_ALL_CERTS)
                     .hostnameVerifier((hostname, session) -> true)
                     .build();
         } catch (NoSuchAlgorithmException | KeyManagementException e) {
             throw new RuntimeException("Unable to initialize self-signed cert SSL for OkHTTP", e);
         }
+    }
 
-        // initialize the Redfish integration by checking ComputerSystems contains system in config
-        init();
+    /// Logs in to the BMC and reads the metadata needed for power queries. If this fails, the session it created is
+    /// deleted again before the exception is thrown.
+    public void connect() throws IOException {
+        try {
+            createSession();
+            // initialize the Redfish integration by checking ComputerSystems contains system in config
+            init();
+        } catch (IOException | RuntimeException e) {
+            deleteSession();
+            throw e;
+        }
     }
 
     /**
      * The Redfish client will connect to Redfish and obtain metadata needed for power queries.
      * It connects to /redfish/v1/Systems to obtain the list of system names. It is expected that this result never
-     * changes without KubeWatt needing to restart.
+     * changes without KubeWatt needing to restart. The query options the BMC supports are read from the service root.
      */
     private void init() throws IOException {
+        var cs = new Gson().fromJson(get("/redfish/v1/Systems"), RedfishComputerSystem.class);
+        var foundSystems = new ArrayList<>(cs.getMembers().stream().map(member -> Arrays.stream(member.getId().split("/")).toList().getLast()).toList());
+
+        var allSystemsFound = new HashSet<>(systems).containsAll(foundSystems);
+        if (!allSystemsFound) {
+            throw new RuntimeException("Not all systems in config were found in Redfish. Config: %s, Redfish: %s".formatted(systems, foundSystems));
+        }
+
+        initQueryOptions();
+    }
+
+    /// Reads `ProtocolFeaturesSupported` from the service root. Expanding the chassis collection two levels deep
+    /// includes each chassis' Power resource, which requires `$levels` and either `.` (subordinate resources only) or
+    /// `*` (everything).
+    private void initQueryOptions() throws IOException {
+        JsonObject features;
+        try {
+            features = JsonParser.parseString(get("/redfish/v1")).getAsJsonObject().getAsJsonObject("ProtocolFeaturesSupported");
+        } catch (StatusException e) {
+            log.info("Unable to read the Redfish service root of node {}; reading each system separately", node, e);
+            return;
+        }
+        if (features == null) {
+            log.info("Redfish service of node {} does not list its protocol features; reading each system separately", node);
+            return;
+        }
+        selectSupported = features.has("SelectQuery") && features.get("SelectQuery").getAsBoolean();
+
+        var expand = features.getAsJsonObject("ExpandQuery");
+        if (expand != null && isTrue(expand, "Levels") && (!expand.has("MaxLevels") || expand.get("MaxLevels").getAsInt() >= 2)) {
+            if (isTrue(expand, "NoLinks")) {
+                batchQuery = "$expand=.($levels=2)";
+            } else if (isTrue(expand, "ExpandAll")) {
+                batchQuery = "$expand=*($levels=2)";
+            }
+        }
+        if (batchQuery != null && selectSupported) {
+            batchQuery += "&$select=Members/Id,Members/Power/PowerControl/PowerConsumedWatts";
+        }
+        log.info("Redfish service of node {} supports $expand: {}, $select: {}", node, batchQuery != null, selectSupported);
+    }
+
+    /// @return The total power of all systems, or the previous total if the BMC cannot have refreshed it since.
+    public int getTotalPowerWatts() throws IOException {
+        var start = System.nanoTime();
+        if (Config.get().collector().power().redfishAdaptivePollingOrDefault() && !cadence.isDue(start)) {
+            readsCounter.labelValues("reused").inc();
+            return cadence.reading();
+        }
+        var total = readTotalPowerWatts();
+        readsCounter.labelValues("polled").inc();
+        cadence.observe(total, start, System.nanoTime());
+        return total;
+    }
+
+    private int readTotalPowerWatts() throws IOException {
+        if (batchQuery != null) {
+            var total = getTotalPowerWattsBatched();
+            if (total.isPresent()) {
+                return total.getAsInt();
+            }
+        }
+
+        int total = 0;
+        for (var system : systems) {
+            var path = "/redfish/v1/Chassis/%s/Power/PowerControl".formatted(system);
+            var pc = new Gson().fromJson(get(selectSupported ? path + "?$select=PowerConsumedWatts" : path), RedfishPowerControl.class);
+            total += pc.getPowerConsumedWatts();
+        }
+        return total;
+    }
+
+    /// Reads the power of all systems from a single expanded chassis collection. If the response misses any system,
+    /// e.g. because the BMC ignored part of the query, batching is turned off for good.
+    /// @return The total power, or empty if the response could not be used.
+    private OptionalInt getTotalPowerWattsBatched() throws IOException {
+        JsonArray members;
+        try {
+            members = JsonParser.parseString(get("/redfish/v1/Chassis?" + batchQuery)).getAsJsonObject().getAsJsonArray("Members");
+        } catch (StatusException e) {
+            if (e.status < 400 || e.status >= 500) {
+                throw e;
+            }
+            log.warn("Redfish service of node {} rejected {}; reading each system separately from now on", node, batchQuery, e);
+            batchQuery = null;
+            return OptionalInt.empty();
+        }
+        var remaining = new HashSet<>(systems);
+        var total = 0;
+        for (var element : members == null ? new JsonArray() : members) {
+            var member = element.getAsJsonObject();
+            if (!member.has("Id") || !remaining.contains(member.get("Id").getAsString())) {
+                continue;
+            }
+            var power = member.getAsJsonObject("Power");
+            var powerControl = power == null ? null : power.getAsJsonArray("PowerControl");
+            if (powerControl == null || powerControl.isEmpty() || !powerControl.get(0).getAsJsonObject().has("PowerConsumedWatts")) {
+                continue;
+            }
+            total += powerControl.get(0).getAsJsonObject().get("PowerConsumedWatts").getAsInt();
+            remaining.remove(member.get("Id").getAsString());
+        }
+        if (!remaining.isEmpty()) {
+            log.warn("Expanded Redfish response of node {} lacks the power of {}; reading each system separately from now on", node, remaining);
+            batchQuery = null;
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of(total);
+    }
+
+    private static boolean isTrue(JsonObject object, String member) {
+        return object.has(member) && object.get(member).getAsBoolean();
+    }
+
+    /// Deletes the session, if any. A closed client creates no new session, so a [#connect()] that is still running
+    /// when this is called fails rather than leaving a session behind on the BMC.
+    @Override
+    public void close() {
+        sessionLock.lock();
+        try {
+            closed = true;
+        } finally {
+            sessionLock.unlock();
+        }
+        deleteSession();
+    }
+
+    /// Deletes the session, if any. The client can still be used afterwards; it then creates a new session.
+    private void deleteSession() {
+        Session previous;
+        sessionLock.lock();
+        try {
+            previous = session;
+            session = null;
+        } finally {
+            sessionLock.unlock();
+        }
+        delete(previous);
+    }
+
+    /// Deletes `session` on the BMC, unless it is `null`.
+    private void delete(Session session) {
+        if (session == null || session.url() == null) {
+            return;
+        }
+        var request = new Request.Builder().url(session.url()).delete().addHeader("X-Auth-Token", session.token()).build();
+        try (var response = client.newCall(request).execute()) {
+            log.debug("Deleted Redfish session of node {}: {}", node, response.code());
+        } catch (IOException e) {
+            log.debug("Unable to delete Redfish session of node {}", node, e);
+        }
+    }
+
+    /// GETs `path` from the Redfish API and records a [RedfishRequestEvent]. A cached response is revalidated rather
+    /// than transferred again.
+    /// @return The response body
+    private String get(String path) throws IOException {
+        var event = new RedfishRequestEvent();
+        event.begin();
+        event.node = node;
+        event.path = path;
+        var cached = cachedResponses.get(path);
+        try (var response = executeWithRetry(path, cached == null ? null : cached.etag())) {
+            event.status = response.code();
+            if (response.code() == 304 && cached != null) {
+                return cached.body();
+            }
+            if (!response.isSuccessful()) {
+                throw new StatusException(response);
+            }
+            var body = response.body().string();
+            event.bytes = body.length();
+            var etag = response.header("ETag");
+            if (etag != null) {
+                cachedResponses.put(path, new CachedResponse(etag, body));
+            } else {
+                cachedResponses.remove(path);
+            }
+            return body;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private Response executeWithRetry(String path, String etag) throws IOException {
+        var response = execute(path, etag);
+        if (response.code() != 401 || response.request().header("X-Auth-Token") == null) {
+            return response;
+        }
+        // the BMC dropped the session, e.g. after a reset; log in again and retry once
+        response.close();
+        log.info("Redfish session of node {} was rejected; creating a new session", node);
+        deleteSession();
+        createSession();
+        return execute(path, etag);
+    }
+
+    /// @param etag The `ETag` of the cached response to revalidate, or `null`
+    private Response execute(String path, String etag) throws IOException {
+        Session current;
+        boolean expired;
+        sessionLock.lock();
+        try {
+            current = session;
+            expired = current != null && System.nanoTime() - lastUsedNanos > sessionTimeoutNanos * 9 / 10;
+            if (!expired) {
+                lastUsedNanos = System.nanoTime();
+            }
+        } finally {
+            sessionLock.unlock();
+        }
+        if (expired) {
+            // the BMC has expired the session or is about to
+            deleteSession();
+            current = createSession();
+        }
         var request = new Request.Builder()
-                .url("%s/redfish/v1/Systems".formatted(host))
-                .addHeader("Authorization", Credentials.basic(this.username, this.password))
+                .url(host + path)
+                .addHeader("Accept", "application/json");
+        if (current != null) {
+            request.addHeader("X-Auth-Token", current.token());
+        } else {
+            request.addHeader("Authorization", Credentials.basic(this.username, this.password));
+        }
+        if (etag != null) {
+            request.addHeader("If-None-Match", etag);
+        }
+        return client.newCall(request.build()).execute();
+    }
+
+    /// Logs in and reads the session timeout. BMCs without a session service keep using Basic authentication.
+    /// @return The new session, or `null` if the BMC does not support sessions
+    private Session createSession() throws IOException {
+        sessionLock.lock();
+        try {
+            if (closed) {
+                throw closedException();
+            }
+            if (!sessionsSupported) {
+                return null;
+            }
+        } finally {
+            sessionLock.unlock();
+        }
+        var credentials = new JsonObject();
+        credentials.addProperty("UserName", username);
+        credentials.addProperty("Password", password);
+        var request = new Request.Builder()
+                .url(host + SESSIONS)
+                .post(RequestBody.create(credentials.toString(), MediaType.get("application/json")))
                 .addHeader("Accept", "application/json")
                 .build();
+        Session created;
         try (var response = client.newCall(request).execute()) {
+            var token = response.header("X-Auth-Token");
+            if (response.code() == 404 || response.code() == 405 || response.code() == 501 || (response.isSuccessful() && token == null)) {
+                log.info("Redfish service of node {} does not support sessions; using Basic authentication", node);
+                sessionLock.lock();
+                try {
+                    sessionsSupported = false;
+                } finally {
+                    sessionLock.unlock();
+                }
+                return null;
+            }
             if (!response.isSuccessful()) {
-                throw new IOException("Unexpected response from Redfish API " + response);
+                throw new StatusException(response);
             }
-            var cs = new Gson().fromJson(response.body().string(), RedfishComputerSystem.class);
-            var foundSystems = new ArrayList<>(cs.getMembers().stream().map(member -> Arrays.stream(member.getId().split("/")).toList().getLast()).toList());
+            var location = response.header("Location");
+            if (location == null) {
+                var body = JsonParser.parseString(response.body().string()).getAsJsonObject();
+                location = body.has("@odata.id") ? body.get("@odata.id").getAsString() : null;
+            }
+            created = new Session(token, location == null ? null : location.startsWith("http") ? location : host + location);
+        }
 
-            var allSystemsFound = new HashSet<>(systems).containsAll(foundSystems);
-            if (!allSystemsFound) {
-                throw new RuntimeException("Not all systems in config were found in Redfish. Config: %s, Redfish: %s".formatted(systems, foundSystems));
+        boolean stored;
+        Session replaced;
+        sessionLock.lock();
+        try {
+            stored = !closed;
+            replaced = stored ? session : created;
+            if (stored) {
+                session = created;
+                lastUsedNanos = System.nanoTime();
             }
+        } finally {
+            sessionLock.unlock();
+        }
+        // a session created while the client was being closed is deleted right away rather than left on the BMC
+        delete(replaced);
+        if (!stored) {
+            throw closedException();
         }
-    }
 
-    public int getTotalPowerWatts() throws IOException {
-        int total = 0;
-        for (var system : systems) {
-            var request = new Request.Builder()
-                    .url("%s/redfish/v1/Chassis/%s/Power/PowerControl".formatted(host, system))
-                    .addHeader("Authorization", Credentials.basic(this.username, this.password))
-                    .addHeader("Accept", "application/json")
-                    .build();
-            try (var response = client.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    throw new IOException("Unexpected response from Redfish API " + response);
+        // not through get(), which would create yet another session if this is rejected
+        try (var response = execute("/redfish/v1/SessionService", null)) {
+            var service = response.isSuccessful() ? JsonParser.parseString(response.body().string()).getAsJsonObject() : null;
+            if (service != null && service.has("SessionTimeout")) {
+                var timeoutNanos = Duration.ofSeconds(service.get("SessionTimeout").getAsLong()).toNanos();
+                sessionLock.lock();
+                try {
+                    sessionTimeoutNanos = timeoutNanos;
+                } finally {
+                    sessionLock.unlock();
                 }
-                var pc = new Gson().fromJson(response.body().string(), RedfishPowerControl.class);
-                total += pc.getPowerConsumedWatts();
+            } else {
+                log.debug("Unable to read the session timeout of node {}; assuming {} seconds", node, DEFAULT_SESSION_TIMEOUT_SECONDS);
             }
         }
-        return total;
+        log.debug("Created Redfish session of node {}", node);
+        return created;
+    }
+
+    private IOException closedException() {
+        return new IOException("Redfish client of node %s is closed".formatted(node));
+    }
+
+    /// An unsuccessful response from the Redfish API.
+    private static class StatusException extends IOException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private StatusException(Response response) {
+            super("Unexpected response from Redfish API " + response);
+            this.status = response.code();
+        }
     }
 }
@@ -0,0 +1,92 @@
+package com.bjornp.kubewatt.collector.power.redfish;
+
+import java.time.Duration;
+
+/// Learns how often a BMC refreshes a power reading from the polls in which the reading changed, so polls that could
+/// only return the previous reading can be skipped.
+///
+/// A change seen by a poll happened at the earliest when the previous poll started and at the latest when this poll
+/// ended. The time between two refreshes is therefore at least the start of the poll before the second change minus
+/// the end of the poll that saw the first change. The period is the smallest such interval of the last changes, and
+/// the next refresh is expected no sooner than one period after the earliest moment of the last change. Until then a
+/// poll cannot see a new reading, so skipping it adds no staleness. Polls that see every refresh give an interval of
+/// zero, so polling a BMC that refreshes faster than it is polled is never skipped.
+///
+/// A reading only changes when the load does, so a fast sensor under a steady load looks like a slow one. The period
+/// learned from it is too long, and is therefore never trusted for more than [#MAX_SKIPPED_POLLS] polls in a row, nor
+/// once the last fetched reading is [#MAX_REUSED_AGE] old, however long the polls are apart.
+class SensorCadence {
+    private static final int WINDOW = 8;
+
+    /// The number of intervals needed before any poll is skipped
+    private static final int MIN_INTERVALS = 3;
+
+    /// The number of consecutive polls that may be skipped before the BMC is polled regardless of the period
+    static final int MAX_SKIPPED_POLLS = 2;
+
+    /// The age of the last fetched reading, measured from the start of its poll, after which it is never reused
+    static final long MAX_REUSED_AGE_NANOS = Duration.ofSeconds(30).toNanos();
+
+    private final long[] intervals = new long[WINDOW];
+
+    private int intervalCount = 0;
+
+    private boolean hasReading = false;
+
+    /// The number of polls skipped since the last observed poll
+    private int skippedPolls = 0;
+
+    private int reading;
+
+    private long lastPollStartNanos;
+
+    /// The earliest and latest moment at which the last change happened; `hasChange` is false before the first change
+    private boolean hasChange = false;
+
+    private long changeEarliestNanos;
+
+    private long changeLatestNanos;
+
+    /// Whether to poll at `nanos`: a poll could see a reading other than [#reading()], or too many polls were skipped
+    /// already. Each call that returns false counts as a skipped poll.
+    boolean isDue(long nanos) {
+        if (!hasReading || !hasChange || intervalCount < MIN_INTERVALS || skippedPolls >= MAX_SKIPPED_POLLS
+                || nanos - lastPollStartNanos >= MAX_REUSED_AGE_NANOS) {
+            return true;
+        }
+        if (nanos - changeEarliestNanos >= period()) {
+            return true;
+        }
+        skippedPolls++;
+        return false;
+    }
+
+    /// The last reading; only valid once a poll was observed.
+    int reading() {
+        return reading;
+    }
+
+    /// Records the reading of a poll that started at `startNanos` and ended at `endNanos`.
+    void observe(int value, long startNanos, long endNanos) {
+        if (hasReading && value != reading) {
+            if (hasChange) {
+                intervals[intervalCount++ % WINDOW] = Math.max(0, lastPollStartNanos - changeLatestNanos);
+            }
+            hasChange = true;
+            changeEarliestNanos = lastPollStartNanos;
+            changeLatestNanos = endNanos;
+        }
+        hasReading = true;
+        skippedPolls = 0;
+        reading = value;
+        lastPollStartNanos = startNanos;
+    }
+
+    private long period() {
+        var period = Long.MAX_VALUE;
+        for (int i = 0; i < Math.min(intervalCount, WINDOW); ++i) {
+            period = Math.min(period, intervals[i]);
+        }
+        return period;
+    }
+}
@@ -1,9 +1,15 @@
 package com.bjornp.kubewatt.estimator;
 
 import com.bjornp.kubewatt.collector.container.KubernetesContainerUtilizationCollector;
+import com.bjornp.kubewatt.collector.node.NodeRegistry;
+import com.bjornp.kubewatt.collector.node.model.ConfiguredNode;
 import com.bjornp.kubewatt.collector.power.PowerCollector;
 import com.bjornp.kubewatt.collector.power.PowerCollectorFactory;
-import com.bjornp.kubewatt.model.ContainerValue;
+import com.bjornp.kubewatt.jfr.EstimationEvent;
+import com.bjornp.kubewatt.jfr.UtilizationCollectionEvent;
+import com.bjornp.kubewatt.model.PodMetadata;
+import com.bjornp.kubewatt.sharding.ShardManager;
+import com.bjornp.kubewatt.utils.NodeWorkers;
 import com.bjornp.kubewatt.utils.config.Config;
 import lombok.extern.slf4j.Slf4j;
 
@@ -11,54 +17,119 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.function.ObjDoubleConsumer;
+import java.util.regex.Pattern;
 
 @Slf4j
 public class ContainerPowerEstimator {
     private final PowerCollector powerCollector = PowerCollectorFactory.getPowerCollector();
 
-    private final KubernetesContainerUtilizationCollector utilizationCollector = new KubernetesContainerUtilizationCollector();
+    private final KubernetesContainerUtilizationCollector utilizationCollector = new KubernetesContainerUtilizationCollector(true);
 
-    /// Get the power usage in Watts for each container, grouped by node name.
-    public Map<String, List<ContainerValue>> getContainerPowerUsage() {
-        var nodeStaticPower = Config.get().collector().nodeStaticPower();
-        var controlPlanePods = Config.get().collector().utilization().controlPlanePods();
+    private final ShardManager shardManager;
 
-        var nodePower = powerCollector.getPowerWatts();
-        var nodeUtilization = utilizationCollector.getContainerUtilization();
+    /// `collector.utilization.control-plane-pods`, compiled once
+    private final List<Pattern> controlPlanePods = Config.get().collector().utilization().controlPlanePods().stream()
+            .map(Pattern::compile)
+            .toList();
 
-        var result = new HashMap<String, List<ContainerValue>>();
+    /// The containers of each owned node, kept between estimations so their slots are reused
+    private final Map<String, NodeSlots> slots = new HashMap<>();
 
-        for (var node : Config.get().collector().nodeNames()) {
-            var nodeResult = new ArrayList<ContainerValue>();
+    /// The nodes of the last estimation, in the order they were estimated
+    private final List<String> estimatedNodes = new ArrayList<>();
 
+    /// The measured power of each node in the last estimation
+    private Map<String, Double> nodePower = Map.of();
+
+    private long tick = 0;
+
+    public ContainerPowerEstimator(ShardManager shardManager) {
+        this.shardManager = shardManager;
+    }
+
+    /// @return The metadata of a pod that was part of the last estimation.
+    public Optional<PodMetadata> getPodMetadata(String namespace, String pod) {
+        return utilizationCollector.getPodMetadata(namespace, pod);
+    }
+
+    /// Estimates the power usage of each container on the nodes owned by this replica. The estimate is kept until the
+    /// next call and read with [#forEachContainerPower(ContainerPowerVisitor)].
+    public synchronized void estimate() {
+        var estimationEvent = new EstimationEvent();
+        estimationEvent.begin();
+        var tick = ++this.tick;
+
+        var nodes = shardManager.ownedNodes(NodeRegistry.get().getNodeNames());
+        slots.keySet().retainAll(nodes);
+        var nodePower = powerCollector.getPowerWatts(nodes);
+        this.nodePower = nodePower;
+        var utilizationEvent = new UtilizationCollectionEvent();
+        utilizationEvent.begin();
+        var containers = new int[1];
+        utilizationCollector.collectContainerUtilization(nodes, (node, namespace, pod, container, cpu, inScope) -> {
+            slots.computeIfAbsent(node, key -> new NodeSlots()).report(namespace, pod, container, cpu, inScope);
+            containers[0]++;
+        });
+        utilizationEvent.nodes = nodes.size();
+        utilizationEvent.containers = containers[0];
+        utilizationEvent.commit();
+
+        // Nodes are independent, so they are divided over the worker threads. Each only touches its own slots and
+        // its own element of `estimated`; the slots are created up front so the map is not modified concurrently.
+        var nodeList = List.copyOf(nodes);
+        var nodeSlots = new NodeSlots[nodeList.size()];
+        for (int i = 0; i < nodeSlots.length; ++i) {
+            nodeSlots[i] = slots.computeIfAbsent(nodeList.get(i), key -> new NodeSlots());
+        }
+        var estimated = new boolean[nodeList.size()];
+        NodeWorkers.forEachNode(nodeList.size(), i -> {
+            var node = nodeList.get(i);
+            // the index lookups and control plane matching of the node's containers
+            nodeSlots[i].recordReported(tick, controlPlanePods);
             var power = nodePower.get(node);
-            var staticPower = Math.min(nodeStaticPower.get(node), power);
+            var nodeStaticPower = NodeRegistry.get().getNode(node).map(ConfiguredNode::staticPower);
+            if (power == null || nodeStaticPower.isEmpty()) {
+                // the node left the cluster while collecting
+                return;
+            }
+            var staticPower = Math.min(nodeStaticPower.get(), power);
             var dynamicPower = power - staticPower;
             // TODO: perform sanity check, dynamicPower should be zero if utilization map is empty
 
-            var utilization = nodeUtilization.get(node);
-            // remove any control plane pods; there are counted in static power usage value
-            utilization = utilization.entrySet().stream()
-                    .filter(entry -> controlPlanePods.stream().noneMatch(controlPlanePattern -> entry.getValue().podName().matches(controlPlanePattern)))
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-            var cpuTotal = utilization.values().stream().mapToDouble(ContainerValue::value).sum();
-            for (var container : utilization.values()) {
-                nodeResult.add(new ContainerValue(
-                        container.containerName(),
-                        container.podName(),
-                        container.namespace(),
-                        cpuTotal == 0
-                            ? 0
-                            : (container.value() / cpuTotal) * dynamicPower
-                ));
+            nodeSlots[i].release(tick);
+            nodeSlots[i].divide(dynamicPower);
+            estimated[i] = true;
+        });
+        estimatedNodes.clear();
+        for (int i = 0; i < estimated.length; ++i) {
+            if (estimated[i]) {
+                estimatedNodes.add(nodeList.get(i));
+            }
+        }
+
+        if (estimationEvent.shouldCommit()) {
+            estimationEvent.nodes = estimatedNodes.size();
+            for (var node : estimatedNodes) {
+                estimationEvent.containers += slots.get(node).count();
             }
+            estimationEvent.commit();
+        }
+    }
 
-            result.put(node, nodeResult);
+    /// Passes the power in Watts of each node of the last [#estimate()], as measured by the power collector, to
+    /// `visitor`.
+    public synchronized void forEachNodePower(ObjDoubleConsumer<String> visitor) {
+        for (var node : estimatedNodes) {
+            visitor.accept(node, nodePower.get(node));
         }
+    }
 
-        log.debug("Container power estimation finished: {}", result);
-        return result;
+    /// Passes the power of each container from the last [#estimate()] to `visitor`, node by node.
+    public synchronized void forEachContainerPower(ContainerPowerVisitor visitor) {
+        for (var node : estimatedNodes) {
+            slots.get(node).forEach(node, visitor);
+        }
     }
 }
@@ -0,0 +1,7 @@
+package com.bjornp.kubewatt.estimator;
+
+/// Receives the estimated power of each container.
+@FunctionalInterface
+public interface ContainerPowerVisitor {
+    void accept(String node, String namespace, String pod, String container, double watts);
+}
@@ -0,0 +1,183 @@
+package com.bjornp.kubewatt.estimator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/// The containers of one node, stored as parallel arrays. Each container keeps the same slot for as long as it is
+/// reported, so a tick only overwrites its CPU and power values. Slots of containers that are no longer reported are
+/// reused by new containers. Whether a container belongs to a control plane pod is decided once, when it gets a slot.
+///
+/// Containers outside the scope of `collector.utilization` are recorded as well: their CPU usage counts towards the
+/// total the dynamic power is divided by, but their power is not passed on.
+///
+/// The utilization of all nodes arrives on one thread, so it is first appended with [#report] and only looked up in
+/// the index by [#recordReported], which can run for several nodes in parallel as each node has its own instance.
+class NodeSlots {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /// namespace -> pod -> container -> slot. Nested so a lookup needs no composite key.
+    private final Map<String, Map<String, Map<String, Integer>>> index = new HashMap<>();
+
+    private String[] namespaces = new String[INITIAL_CAPACITY];
+
+    private String[] pods = new String[INITIAL_CAPACITY];
+
+    private String[] containers = new String[INITIAL_CAPACITY];
+
+    private double[] cpu = new double[INITIAL_CAPACITY];
+
+    private double[] power = new double[INITIAL_CAPACITY];
+
+    private boolean[] controlPlane = new boolean[INITIAL_CAPACITY];
+
+    private boolean[] inScope = new boolean[INITIAL_CAPACITY];
+
+    /// The tick in which each slot was last reported; 0 for a free slot.
+    private long[] seen = new long[INITIAL_CAPACITY];
+
+    private int[] free = new int[INITIAL_CAPACITY];
+
+    private int freeCount = 0;
+
+    /// One past the highest slot ever used.
+    private int size = 0;
+
+    // The containers reported since the last [#recordReported]. The arrays are reused between ticks.
+    private String[] reportedNamespaces = new String[INITIAL_CAPACITY];
+
+    private String[] reportedPods = new String[INITIAL_CAPACITY];
+
+    private String[] reportedContainers = new String[INITIAL_CAPACITY];
+
+    private double[] reportedCpu = new double[INITIAL_CAPACITY];
+
+    private boolean[] reportedInScope = new boolean[INITIAL_CAPACITY];
+
+    private int reportedCount = 0;
+
+    /// Queues the CPU usage of a container for the next [#recordReported]. Only appends to an array.
+    void report(String namespace, String pod, String container, double cpuSeconds, boolean inScope) {
+        if (reportedCount == reportedCpu.length) {
+            var capacity = reportedCount * 2;
+            reportedNamespaces = Arrays.copyOf(reportedNamespaces, capacity);
+            reportedPods = Arrays.copyOf(reportedPods, capacity);
+            reportedContainers = Arrays.copyOf(reportedContainers, capacity);
+            reportedCpu = Arrays.copyOf(reportedCpu, capacity);
+            reportedInScope = Arrays.copyOf(reportedInScope, capacity);
+        }
+        reportedNamespaces[reportedCount] = namespace;
+        reportedPods[reportedCount] = pod;
+        reportedContainers[reportedCount] = container;
+        reportedCpu[reportedCount] = cpuSeconds;
+        reportedInScope[reportedCount] = inScope;
+        reportedCount++;
+    }
+
+    /// [Records][#record] every container reported since the previous call in tick `tick`.
+    void recordReported(long tick, List<Pattern> controlPlanePods) {
+        for (int i = 0; i < reportedCount; ++i) {
+            record(reportedNamespaces[i], reportedPods[i], reportedContainers[i], reportedCpu[i], reportedInScope[i], tick, controlPlanePods);
+        }
+        Arrays.fill(reportedNamespaces, 0, reportedCount, null);
+        Arrays.fill(reportedPods, 0, reportedCount, null);
+        Arrays.fill(reportedContainers, 0, reportedCount, null);
+        reportedCount = 0;
+    }
+
+    /// Sets the CPU usage of a container in tick `tick`, which must be positive and increase between ticks.
+    void record(String namespace, String pod, String container, double cpuSeconds, boolean inScope, long tick, List<Pattern> controlPlanePods) {
+        var slot = index.computeIfAbsent(namespace, key -> new HashMap<>())
+                .computeIfAbsent(pod, key -> new HashMap<>())
+                .get(container);
+        if (slot == null) {
+            slot = allocate();
+            index.get(namespace).get(pod).put(container, slot);
+            namespaces[slot] = namespace;
+            pods[slot] = pod;
+            containers[slot] = container;
+            controlPlane[slot] = controlPlanePods.stream().anyMatch(pattern -> pattern.matcher(pod).matches());
+        }
+        cpu[slot] = cpuSeconds;
+        this.inScope[slot] = inScope;
+        seen[slot] = tick;
+    }
+
+    /// Frees the slots of containers that were not reported in `tick`.
+    void release(long tick) {
+        for (int slot = 0; slot < size; ++slot) {
+            if (seen[slot] == 0 || seen[slot] == tick) {
+                continue;
+            }
+            var podIndex = index.get(namespaces[slot]);
+            var containerIndex = podIndex.get(pods[slot]);
+            containerIndex.remove(containers[slot]);
+            if (containerIndex.isEmpty()) {
+                podIndex.remove(pods[slot]);
+                if (podIndex.isEmpty()) {
+                    index.remove(namespaces[slot]);
+                }
+            }
+            namespaces[slot] = null;
+            pods[slot] = null;
+            containers[slot] = null;
+            seen[slot] = 0;
+            free[freeCount++] = slot;
+        }
+    }
+
+    /// Divides `dynamicPower` over the live containers, in scope or not, by their share of the CPU usage. Control
+    /// plane containers get no share; their power is part of the static power.
+    void divide(double dynamicPower) {
+        var cpuTotal = 0.0;
+        for (int slot = 0; slot < size; ++slot) {
+            if (seen[slot] != 0 && !controlPlane[slot]) {
+                cpuTotal += cpu[slot];
+            }
+        }
+        for (int slot = 0; slot < size; ++slot) {
+            power[slot] = seen[slot] == 0 || controlPlane[slot] || cpuTotal == 0 ? 0 : (cpu[slot] / cpuTotal) * dynamicPower;
+        }
+    }
+
+    /// Passes the power of every live container in scope that is not part of the control plane to `visitor`.
+    void forEach(String node, ContainerPowerVisitor visitor) {
+        for (int slot = 0; slot < size; ++slot) {
+            if (seen[slot] != 0 && !controlPlane[slot] && inScope[slot]) {
+                visitor.accept(node, namespaces[slot], pods[slot], containers[slot], power[slot]);
+            }
+        }
+    }
+
+    /// The number of live containers in scope that are not part of the control plane.
+    int count() {
+        var count = 0;
+        for (int slot = 0; slot < size; ++slot) {
+            if (seen[slot] != 0 && !controlPlane[slot] && inScope[slot]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        if (size == cpu.length) {
+            var capacity = size * 2;
+            namespaces = Arrays.copyOf(namespaces, capacity);
+            pods = Arrays.copyOf(pods, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+            cpu = Arrays.copyOf(cpu, capacity);
+            power = Arrays.copyOf(power, capacity);
+            controlPlane = Arrays.copyOf(controlPlane, capacity);
+            inScope = Arrays.copyOf(inScope, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+            free = Arrays.copyOf(free, capacity);
+        }
+        return size++;
+    }
+}
@@ -0,0 +1,23 @@
+package com.bjornp.kubewatt.exporter;
+
+import java.util.List;
+
+/// The granularity at which container power is exported. Coarser levels sum the power of all containers in the same
+/// pod, workload or namespace on a node, which keeps the number of series stable across rollouts.
+public enum AggregationLevel {
+    CONTAINER("namespace", "pod", "container"),
+    POD("namespace", "pod"),
+    WORKLOAD("namespace", "workload_kind", "workload"),
+    NAMESPACE("namespace");
+
+    private final List<String> labelNames;
+
+    AggregationLevel(String... labelNames) {
+        this.labelNames = List.of(labelNames);
+    }
+
+    /// @return The labels identifying a series at this level, excluding `node` and `type`.
+    public List<String> getLabelNames() {
+        return labelNames;
+    }
+}
@@ -0,0 +1,54 @@
+package com.bjornp.kubewatt.exporter;
+
+import com.bjornp.kubewatt.collector.container.OwnerReferenceCache;
+import com.bjornp.kubewatt.estimator.ContainerPowerEstimator;
+import com.bjornp.kubewatt.model.Workload;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// Sums the output of the [ContainerPowerEstimator] to the configured [AggregationLevel]. Workloads are resolved
+/// through an [OwnerReferenceCache], so aggregation does not make API calls for pods that were seen before.
+public class PowerAggregator {
+    private final AggregationLevel level;
+
+    private final ContainerPowerEstimator estimator;
+
+    private final OwnerReferenceCache ownerReferenceCache;
+
+    public PowerAggregator(AggregationLevel level, ContainerPowerEstimator estimator) {
+        this.level = level;
+        this.estimator = estimator;
+        this.ownerReferenceCache = level == AggregationLevel.WORKLOAD ? new OwnerReferenceCache() : null;
+    }
+
+    public AggregationLevel getLevel() {
+        return level;
+    }
+
+    /// Sums the containers of the last estimation, read straight from the estimator.
+    /// @return For each node, the power in Watts per series. Series are identified by their values for the labels of [AggregationLevel#getLabelNames()].
+    public Map<String, Map<List<String>, Double>> aggregate() {
+        var result = new HashMap<String, Map<List<String>, Double>>();
+        // every estimated node is in the result, even without containers, so its static power is still exported
+        estimator.forEachNodePower((node, watts) -> result.put(node, new HashMap<>()));
+        estimator.forEachContainerPower((node, namespace, pod, container, watts) ->
+                result.get(node).merge(labelValues(namespace, pod, container), watts, Double::sum));
+        return result;
+    }
+
+    private List<String> labelValues(String namespace, String pod, String container) {
+        return switch (level) {
+            case CONTAINER -> List.of(namespace, pod, container);
+            case POD -> List.of(namespace, pod);
+            case WORKLOAD -> {
+                var workload = estimator.getPodMetadata(namespace, pod)
+                        .map(metadata -> ownerReferenceCache.resolve(namespace, pod, metadata))
+                        .orElseGet(() -> new Workload("Pod", pod));
+                yield List.of(namespace, workload.kind(), workload.name());
+            }
+            case NAMESPACE -> List.of(namespace);
+        };
+    }
+}
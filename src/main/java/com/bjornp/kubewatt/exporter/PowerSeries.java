@@ -0,0 +1,15 @@
+package com.bjornp.kubewatt.exporter;
+
+import java.util.List;
+import java.util.Map;
+
+/// The power series of one tick, ready for export.
+/// @param labelNames The names of the labels, in the order of the label values in `values`.
+/// @param values The power in Watts per series, keyed by label values.
+/// @param timestampMillis The time at which the tick started, in milliseconds since the epoch.
+public record PowerSeries(
+        List<String> labelNames,
+        Map<List<String>, Double> values,
+        long timestampMillis
+) {
+}
@@ -0,0 +1,70 @@
+package com.bjornp.kubewatt.exporter;
+
+import com.bjornp.kubewatt.collector.node.NodeRegistry;
+import com.bjornp.kubewatt.collector.node.model.ConfiguredNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/// Turns the output of the estimator into the series that are exported. The labels are `node`, the labels of the
+/// configured [AggregationLevel] and `type`. Every node has one `static` series with all other labels empty, and one
+/// `dynamic` series per container, pod, workload or namespace.
+///
+/// When a [TopKSelector] is given, only the `k` highest `dynamic` series per node are kept. The remaining power of the
+/// node becomes a single series of type `other`, which bounds the number of series per node to `k + 2` regardless of
+/// the number of pods.
+public class PowerSeriesBuilder {
+    private final PowerAggregator aggregator;
+
+    private final TopKSelector topKSelector;
+
+    private final List<String> labelNames;
+
+    /// @param topKSelector Optional; limits the number of series per node.
+    public PowerSeriesBuilder(PowerAggregator aggregator, TopKSelector topKSelector) {
+        this.aggregator = aggregator;
+        this.topKSelector = topKSelector;
+
+        var labelNames = new ArrayList<String>();
+        labelNames.add("node");
+        labelNames.addAll(aggregator.getLevel().getLabelNames());
+        labelNames.add("type");
+        this.labelNames = List.copyOf(labelNames);
+    }
+
+    public List<String> getLabelNames() {
+        return labelNames;
+    }
+
+    /// Builds the series of the last estimation of the aggregator's estimator.
+    public PowerSeries build(long timestampMillis) {
+        var series = new HashMap<List<String>, Double>();
+        var emptyLabels = Collections.nCopies(aggregator.getLevel().getLabelNames().size(), "");
+
+        aggregator.aggregate().forEach((node, nodeSeries) -> {
+            // static power is exported only for the nodes this replica owns
+            NodeRegistry.get().getNode(node).map(ConfiguredNode::staticPower)
+                    .ifPresent(staticPower -> series.put(labels(node, emptyLabels, "static"), staticPower));
+            if (topKSelector == null) {
+                nodeSeries.forEach((labelValues, value) -> series.put(labels(node, labelValues, "dynamic"), value));
+            } else {
+                var selection = topKSelector.select(nodeSeries);
+                selection.top().forEach((labelValues, value) -> series.put(labels(node, labelValues, "dynamic"), value));
+                if (selection.otherCount() > 0) {
+                    series.put(labels(node, emptyLabels, "other"), selection.other());
+                }
+            }
+        });
+        return new PowerSeries(labelNames, series, timestampMillis);
+    }
+
+    private static List<String> labels(String node, List<String> labelValues, String type) {
+        var result = new ArrayList<String>(labelValues.size() + 2);
+        result.add(node);
+        result.addAll(labelValues);
+        result.add(type);
+        return result;
+    }
+}
@@ -0,0 +1,10 @@
+package com.bjornp.kubewatt.exporter;
+
+/// Receives the power series of every tick, e.g. to expose them to Prometheus or push them to a remote.
+public interface PowerSeriesSink extends AutoCloseable {
+    void accept(PowerSeries series);
+
+    @Override
+    default void close() {
+    }
+}
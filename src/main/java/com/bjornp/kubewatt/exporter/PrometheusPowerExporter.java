@@ -0,0 +1,83 @@
+package com.bjornp.kubewatt.exporter;
+
+import com.bjornp.kubewatt.jfr.GaugeReconciliationEvent;
+import com.bjornp.kubewatt.utils.NodeWorkers;
+import io.prometheus.metrics.core.metrics.Gauge;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/// Exports the power series as the `kubewatt_container_power_watts` gauge. Series that were exported before but have
+/// no data in the current tick are removed.
+///
+/// The first label of every series is `node`, so the series are reconciled node by node, divided over the
+/// [NodeWorkers]. The gauge itself is safe to update from several threads.
+@Slf4j
+public class PrometheusPowerExporter implements PowerSeriesSink {
+    private final Gauge powerGauge;
+
+    /// All label values exported in the previous tick, per node
+    private Map<String, Set<List<String>>> exported = Map.of();
+
+    public PrometheusPowerExporter(List<String> labelNames) {
+        this.powerGauge = Gauge
+                .builder()
+                .name("kubewatt_container_power_watts")
+                .help("Power in Watts per Kubernetes workload container")
+                .labelNames(labelNames.toArray(String[]::new))
+                .register();
+    }
+
+    @Override
+    public void accept(PowerSeries series) {
+        var event = new GaugeReconciliationEvent();
+        event.begin();
+        var values = new HashMap<String, List<Map.Entry<List<String>, Double>>>();
+        series.values().entrySet().forEach(entry -> values.computeIfAbsent(entry.getKey().getFirst(), node -> new ArrayList<>()).add(entry));
+
+        var nodes = new LinkedHashSet<>(exported.keySet());
+        nodes.addAll(values.keySet());
+        var nodeList = List.copyOf(nodes);
+        var current = new ArrayList<Set<List<String>>>(Collections.nCopies(nodeList.size(), null));
+        var removed = new int[nodeList.size()];
+        NodeWorkers.forEachNode(nodeList.size(), i -> {
+            var node = nodeList.get(i);
+            var nodeCurrent = new HashSet<List<String>>();
+
+            // 1 - Add new data to Prometheus
+            for (var entry : values.getOrDefault(node, List.of())) {
+                log.debug("Adding {} = {}", entry.getKey(), entry.getValue());
+                powerGauge.labelValues(entry.getKey().toArray(String[]::new)).set(entry.getValue());
+                nodeCurrent.add(entry.getKey());
+            }
+
+            // 2 - Remove series from Prometheus that don't have new data; these are likely no longer running or owned by another replica
+            for (var labelValues : exported.getOrDefault(node, Set.of())) {
+                if (!nodeCurrent.contains(labelValues)) {
+                    log.debug("Removing {}", labelValues);
+                    powerGauge.remove(labelValues.toArray(String[]::new));
+                    removed[i]++;
+                }
+            }
+            current.set(i, nodeCurrent);
+        });
+
+        var exportedByNode = new HashMap<String, Set<List<String>>>();
+        for (int i = 0; i < nodeList.size(); ++i) {
+            if (!current.get(i).isEmpty()) {
+                exportedByNode.put(nodeList.get(i), current.get(i));
+            }
+            event.removed += removed[i];
+        }
+        exported = exportedByNode;
+        event.series = series.values().size();
+        event.commit();
+    }
+}
@@ -0,0 +1,50 @@
+package com.bjornp.kubewatt.exporter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/// Keeps the `k` series with the highest power of a node and sums all others. Selection uses a min-heap bounded to
+/// `k` entries, so it runs in O(n log k) and never holds more than `k` candidates.
+public class TopKSelector {
+    private final int k;
+
+    public TopKSelector(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+    }
+
+    /// @param top The `k` series with the highest power, or all series if there are no more than `k`.
+    /// @param other The summed power of all series not in `top`.
+    /// @param otherCount The number of series summed into `other`.
+    public record Selection(Map<List<String>, Double> top, double other, int otherCount) {
+    }
+
+    public Selection select(Map<List<String>, Double> series) {
+        if (series.size() <= k) {
+            return new Selection(series, 0, 0);
+        }
+
+        var heap = new PriorityQueue<Map.Entry<List<String>, Double>>(k, Map.Entry.comparingByValue());
+        double other = 0;
+        for (var entry : series.entrySet()) {
+            if (heap.size() < k) {
+                heap.add(entry);
+            } else if (entry.getValue() > heap.peek().getValue()) {
+                other += heap.poll().getValue();
+                heap.add(entry);
+            } else {
+                other += entry.getValue();
+            }
+        }
+
+        var top = new HashMap<List<String>, Double>(k * 2);
+        for (var entry : heap) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return new Selection(top, other, series.size() - k);
+    }
+}
@@ -0,0 +1,140 @@
+package com.bjornp.kubewatt.exporter.quantile;
+
+import java.util.Arrays;
+
+/// A quantile sketch after DDSketch (Masson et al., 2019). Values are counted in buckets whose bounds grow
+/// geometrically, so every quantile is returned with a relative error of at most `relativeAccuracy`. Two sketches with
+/// the same accuracy are merged by adding their bucket counts, which makes the sketch suitable for rolling windows.
+///
+/// Memory is bounded by `maxBuckets`. When a value would need more buckets, the lowest buckets are collapsed into one;
+/// this only affects the accuracy of the lowest quantiles, which are of little interest for power.
+class DDSketch {
+    /// Values at or below this are counted as zero
+    private static final double MIN_INDEXABLE = 1e-9;
+
+    private final double gamma;
+
+    private final double logGamma;
+
+    private final int maxBuckets;
+
+    /// `counts[i]` is the count of bucket `offset + i`
+    private long[] counts = new long[0];
+
+    private int offset = 0;
+
+    private long zeroCount = 0;
+
+    private long count = 0;
+
+    private double sum = 0;
+
+    DDSketch(double relativeAccuracy, int maxBuckets) {
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.maxBuckets = maxBuckets;
+    }
+
+    void add(double value) {
+        count++;
+        sum += value;
+        if (value <= MIN_INDEXABLE) {
+            zeroCount++;
+            return;
+        }
+        // slot() may replace counts, so it must be called before counts is read
+        var slot = slot((int) Math.ceil(Math.log(value) / logGamma));
+        counts[slot]++;
+    }
+
+    void merge(DDSketch other) {
+        count += other.count;
+        sum += other.sum;
+        zeroCount += other.zeroCount;
+        for (var i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] > 0) {
+                var slot = slot(other.offset + i);
+                counts[slot] += other.counts[i];
+            }
+        }
+    }
+
+    void clear() {
+        counts = new long[0];
+        offset = 0;
+        zeroCount = 0;
+        count = 0;
+        sum = 0;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getSum() {
+        return sum;
+    }
+
+    /// @return The value at quantile `q`, or NaN when the sketch is empty.
+    double quantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        var rank = (long) (q * (count - 1));
+        if (rank < zeroCount) {
+            return 0;
+        }
+        var seen = zeroCount;
+        for (var i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                // the middle of the bucket in relative terms, which is what bounds the error
+                return 2 * Math.pow(gamma, offset + i) / (1 + gamma);
+            }
+        }
+        return 2 * Math.pow(gamma, offset + counts.length - 1) / (1 + gamma);
+    }
+
+    /// @return The position in `counts` of the bucket with `index`, growing or collapsing `counts` as needed.
+    private int slot(int index) {
+        if (counts.length == 0) {
+            counts = new long[8];
+            offset = index;
+            return 0;
+        }
+        if (index < offset) {
+            var shift = offset - index;
+            if (counts.length + shift > maxBuckets) {
+                // collapse into the lowest bucket we can still keep
+                return 0;
+            }
+            var grown = new long[Math.min(maxBuckets, Math.max(counts.length + shift, counts.length * 2))];
+            System.arraycopy(counts, 0, grown, shift, counts.length);
+            counts = grown;
+            offset = index;
+            return 0;
+        }
+        var slot = index - offset;
+        if (slot < counts.length) {
+            return slot;
+        }
+        if (slot >= maxBuckets) {
+            // make room at the top by collapsing the lowest buckets
+            var collapse = slot - maxBuckets + 1;
+            var collapsed = 0L;
+            for (var i = 0; i <= collapse && i < counts.length; i++) {
+                collapsed += counts[i];
+            }
+            var shifted = new long[maxBuckets];
+            if (collapse < counts.length) {
+                System.arraycopy(counts, collapse, shifted, 0, counts.length - collapse);
+            }
+            shifted[0] = collapsed;
+            counts = shifted;
+            offset += collapse;
+            return index - offset;
+        }
+        counts = Arrays.copyOf(counts, Math.min(maxBuckets, Math.max(slot + 1, counts.length * 2)));
+        return slot;
+    }
+}
@@ -0,0 +1,125 @@
+package com.bjornp.kubewatt.exporter.quantile;
+
+import com.bjornp.kubewatt.exporter.PowerSeries;
+import com.bjornp.kubewatt.exporter.PowerSeriesSink;
+import com.bjornp.kubewatt.utils.config.Config;
+import io.prometheus.metrics.model.registry.Collector;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// Keeps a quantile sketch per power series for every configured rolling window and exports them as the
+/// `kubewatt_container_power_window_watts` gauge, with additional `window` and `quantile` labels. This answers
+/// questions like "what is the p99 power of this container over the last 24 hours" without a `quantile_over_time`
+/// query over all samples.
+///
+/// The quantiles are exported as a gauge rather than a summary, because the count and sum of a window go down as
+/// samples leave it, while Prometheus treats those of a summary as counters.
+///
+/// Each tick adds one value to the sketches of every exported series. Sketches of series that have had no values for
+/// longer than the largest window are removed. The exporter must be registered with a registry to be scraped.
+@Slf4j
+public class PowerQuantileExporter implements PowerSeriesSink, Collector {
+    private static final String NAME = "kubewatt_container_power_window_watts";
+
+    /// The number of slices each window is divided into
+    private static final int SLICES = 6;
+
+    private static final int MAX_BUCKETS = 2048;
+
+    private final Config.QuantileConfig config;
+
+    private final List<String> windowLabels;
+
+    private final List<String> quantileLabels;
+
+    /// The rolling sketches per series, one per window in the order of `config.windowMinutes()`
+    private final Map<List<String>, RollingSketch[]> sketches = new HashMap<>();
+
+    private List<String> labelNames = List.of();
+
+    private long lastTimestampMillis = 0;
+
+    public PowerQuantileExporter(Config.QuantileConfig config) {
+        this.config = config;
+        this.windowLabels = config.windowMinutes().stream().map(PowerQuantileExporter::windowLabel).toList();
+        this.quantileLabels = config.quantiles().stream().map(String::valueOf).toList();
+        log.info("Keeping power quantiles {} over windows {}", config.quantiles(), windowLabels);
+    }
+
+    @Override
+    public synchronized void accept(PowerSeries series) {
+        labelNames = series.labelNames();
+        lastTimestampMillis = series.timestampMillis();
+
+        series.values().forEach((labelValues, value) -> {
+            var windows = sketches.computeIfAbsent(labelValues, k -> newWindows());
+            for (var window : windows) {
+                window.add(value, series.timestampMillis());
+            }
+        });
+
+        // the largest window is the last to forget a series
+        sketches.values().removeIf(windows -> {
+            for (var window : windows) {
+                if (!window.isEmpty(series.timestampMillis())) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public synchronized MetricSnapshot collect() {
+        var dataPoints = new ArrayList<GaugeSnapshot.GaugeDataPointSnapshot>(sketches.size() * windowLabels.size() * quantileLabels.size());
+        var merged = new DDSketch(config.relativeAccuracyOrDefault(), MAX_BUCKETS);
+        sketches.forEach((labelValues, windows) -> {
+            var labels = Labels.of(labelNames, labelValues);
+            for (var i = 0; i < windows.length; i++) {
+                merged.clear();
+                windows[i].mergeInto(merged, lastTimestampMillis);
+                if (merged.getCount() == 0) {
+                    continue;
+                }
+                var window = labels.add("window", windowLabels.get(i));
+                for (var q = 0; q < quantileLabels.size(); q++) {
+                    dataPoints.add(new GaugeSnapshot.GaugeDataPointSnapshot(
+                            merged.quantile(config.quantiles().get(q)),
+                            window.add("quantile", quantileLabels.get(q)),
+                            null
+                    ));
+                }
+            }
+        });
+        return new GaugeSnapshot(new MetricMetadata(NAME, "Quantiles of the power in Watts per Kubernetes workload container over rolling windows"), dataPoints);
+    }
+
+    @Override
+    public String getPrometheusName() {
+        return NAME;
+    }
+
+    private RollingSketch[] newWindows() {
+        var windows = new RollingSketch[config.windowMinutes().size()];
+        for (var i = 0; i < windows.length; i++) {
+            windows[i] = new RollingSketch(config.windowMinutes().get(i) * 60_000L, SLICES, config.relativeAccuracyOrDefault(), MAX_BUCKETS);
+        }
+        return windows;
+    }
+
+    /// @return e.g. `30m`, `1h` or `24h`
+    private static String windowLabel(int minutes) {
+        if (minutes % 60 == 0) {
+            return minutes / 60 + "h";
+        }
+        return minutes + "m";
+    }
+}
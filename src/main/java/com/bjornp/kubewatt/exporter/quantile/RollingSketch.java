@@ -0,0 +1,59 @@
+package com.bjornp.kubewatt.exporter.quantile;
+
+/// A [DDSketch] over a rolling time window. The window is divided into a fixed number of slices, each with its own
+/// sketch; a slice is reused once it has fallen out of the window and queries merge the live slices. The window that is
+/// covered therefore lies between `(slices - 1) / slices` and the whole configured window, and memory is constant
+/// however many values are added.
+class RollingSketch {
+    private final long sliceMillis;
+
+    private final DDSketch[] slices;
+
+    /// The slice number, i.e. time divided by `sliceMillis`, of the values in every slice
+    private final long[] sliceNumbers;
+
+    RollingSketch(long windowMillis, int sliceCount, double relativeAccuracy, int maxBuckets) {
+        this.sliceMillis = Math.max(1, windowMillis / sliceCount);
+        this.slices = new DDSketch[sliceCount];
+        this.sliceNumbers = new long[sliceCount];
+        for (var i = 0; i < sliceCount; i++) {
+            slices[i] = new DDSketch(relativeAccuracy, maxBuckets);
+            sliceNumbers[i] = Long.MIN_VALUE;
+        }
+    }
+
+    void add(double value, long timestampMillis) {
+        var sliceNumber = timestampMillis / sliceMillis;
+        var i = (int) Math.floorMod(sliceNumber, (long) slices.length);
+        if (sliceNumbers[i] != sliceNumber) {
+            slices[i].clear();
+            sliceNumbers[i] = sliceNumber;
+        }
+        slices[i].add(value);
+    }
+
+    /// Merges the slices that are still within the window at `nowMillis` into `into`.
+    void mergeInto(DDSketch into, long nowMillis) {
+        var current = nowMillis / sliceMillis;
+        for (var i = 0; i < slices.length; i++) {
+            if (isLive(sliceNumbers[i], current)) {
+                into.merge(slices[i]);
+            }
+        }
+    }
+
+    /// @return Whether none of the values added to this sketch is still within the window at `nowMillis`.
+    boolean isEmpty(long nowMillis) {
+        var current = nowMillis / sliceMillis;
+        for (var sliceNumber : sliceNumbers) {
+            if (isLive(sliceNumber, current)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isLive(long sliceNumber, long current) {
+        return sliceNumber != Long.MIN_VALUE && current - sliceNumber < slices.length;
+    }
+}
@@ -0,0 +1,113 @@
+package com.bjornp.kubewatt.exporter.remotewrite;
+
+import com.bjornp.kubewatt.exporter.PowerSeries;
+import com.google.protobuf.CodedOutputStream;
+import io.airlift.compress.snappy.SnappyCompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/// Encodes power series as snappy-compressed Prometheus remote-write 1.0 `WriteRequest` messages. The messages are
+/// written field by field, which avoids generating classes from `remote.proto` for the three message types we need:
+///
+/// ```
+/// message WriteRequest { repeated TimeSeries timeseries = 1; }
+/// message TimeSeries   { repeated Label labels = 1; repeated Sample samples = 2; }
+/// message Label        { string name = 1; string value = 2; }
+/// message Sample       { double value = 1; int64 timestamp = 2; }
+/// ```
+public class RemoteWriteEncoder {
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    private final String metricName;
+
+    private final SnappyCompressor compressor = new SnappyCompressor();
+
+    public RemoteWriteEncoder(String metricName) {
+        this.metricName = metricName;
+    }
+
+    /// Splits the series into requests of at most `batchSize` series each.
+    /// @return The compressed request bodies.
+    public List<byte[]> encode(PowerSeries series, int batchSize) {
+        var labelOrder = labelOrder(series.labelNames());
+        var result = new ArrayList<byte[]>();
+        var batch = new ArrayList<Map.Entry<List<String>, Double>>(batchSize);
+        for (var entry : series.values().entrySet()) {
+            batch.add(entry);
+            if (batch.size() == batchSize) {
+                result.add(compress(writeRequest(series, labelOrder, batch)));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            result.add(compress(writeRequest(series, labelOrder, batch)));
+        }
+        return result;
+    }
+
+    /// Remote-write requires the labels of a series to be sorted by name. `__name__` sorts before all our labels.
+    /// @return The indices of `labelNames` in sorted order.
+    private static int[] labelOrder(List<String> labelNames) {
+        var order = new ArrayList<Integer>();
+        for (var i = 0; i < labelNames.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing(labelNames::get));
+        return order.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private byte[] writeRequest(PowerSeries series, int[] labelOrder, List<Map.Entry<List<String>, Double>> batch) {
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = CodedOutputStream.newInstance(bytes);
+            for (var entry : batch) {
+                var timeSeries = timeSeries(series, labelOrder, entry.getKey(), entry.getValue());
+                out.writeByteArray(1, timeSeries);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private byte[] timeSeries(PowerSeries series, int[] labelOrder, List<String> labelValues, double value) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = CodedOutputStream.newInstance(bytes);
+
+        writeLabel(out, "__name__", metricName);
+        for (var i : labelOrder) {
+            // an empty label value is the same as an absent label
+            if (!labelValues.get(i).isEmpty()) {
+                writeLabel(out, series.labelNames().get(i), labelValues.get(i));
+            }
+        }
+
+        out.writeTag(2, WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(CodedOutputStream.computeDoubleSize(1, value) + CodedOutputStream.computeInt64Size(2, series.timestampMillis()));
+        out.writeDouble(1, value);
+        out.writeInt64(2, series.timestampMillis());
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeLabel(CodedOutputStream out, String name, String value) throws IOException {
+        out.writeTag(1, WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(CodedOutputStream.computeStringSize(1, name) + CodedOutputStream.computeStringSize(2, value));
+        out.writeString(1, name);
+        out.writeString(2, value);
+    }
+
+    private byte[] compress(byte[] input) {
+        var output = new byte[compressor.maxCompressedLength(input.length)];
+        var length = compressor.compress(input, 0, input.length, output, 0, output.length);
+        return Arrays.copyOf(output, length);
+    }
+}
@@ -0,0 +1,175 @@
+package com.bjornp.kubewatt.exporter.remotewrite;
+
+import com.bjornp.kubewatt.exporter.PowerSeries;
+import com.bjornp.kubewatt.exporter.PowerSeriesSink;
+import com.bjornp.kubewatt.jfr.StorageWriteEvent;
+import com.bjornp.kubewatt.utils.config.Config;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Gauge;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+
+/// Pushes the power series of every tick to a Prometheus remote-write endpoint, with the timestamp of the tick. Series
+/// are split into batches of `batch-size` and put on a bounded queue, from which a single sender thread posts them in
+/// order. Failed requests are retried with exponential backoff on network errors, 429 and 5xx responses; other
+/// responses mean the receiver will never accept the request, so it is dropped. When the queue is full the oldest
+/// request is dropped to make room, so a long outage of the receiver costs the oldest samples rather than memory.
+@Slf4j
+public class RemoteWriteSink implements PowerSeriesSink {
+    private static final MediaType PROTOBUF = MediaType.get("application/x-protobuf");
+
+    private static final Counter samplesCounter = Counter.builder()
+            .name("kubewatt_remote_write_samples_total")
+            .help("Samples handled by remote-write, by outcome")
+            .labelNames("outcome")
+            .register();
+
+    private static final Counter retriesCounter = Counter.builder()
+            .name("kubewatt_remote_write_retries_total")
+            .help("Remote-write requests that were retried")
+            .register();
+
+    private static final Gauge queueGauge = Gauge.builder()
+            .name("kubewatt_remote_write_queue_length")
+            .help("Remote-write requests waiting to be sent")
+            .register();
+
+    private final Config.RemoteWriteConfig config;
+
+    private final RemoteWriteEncoder encoder;
+
+    private final OkHttpClient client;
+
+    private final ArrayDeque<Batch> queue = new ArrayDeque<>();
+
+    private final Thread sender;
+
+    private volatile boolean closed = false;
+
+    private record Batch(byte[] body, int samples) {
+    }
+
+    public RemoteWriteSink(Config.RemoteWriteConfig config, String metricName) {
+        this.config = config;
+        this.encoder = new RemoteWriteEncoder(metricName);
+        this.client = new OkHttpClient.Builder()
+                .callTimeout(Duration.ofMillis(config.timeoutMsOrDefault()))
+                .build();
+
+        this.sender = new Thread(this::send, "kubewatt-remote-write");
+        sender.setDaemon(true);
+        sender.start();
+        log.info("Pushing power series to {}", config.url());
+    }
+
+    @Override
+    public void accept(PowerSeries series) {
+        var batchSize = config.batchSizeOrDefault();
+        var bodies = encoder.encode(series, batchSize);
+        var remaining = series.values().size();
+        synchronized (queue) {
+            for (var body : bodies) {
+                var samples = Math.min(batchSize, remaining);
+                remaining -= samples;
+                if (queue.size() >= config.queueCapacityOrDefault()) {
+                    var dropped = queue.removeFirst();
+                    samplesCounter.labelValues("dropped").inc(dropped.samples());
+                    log.warn("Remote-write queue is full; dropped a request with {} samples", dropped.samples());
+                }
+                queue.addLast(new Batch(body, samples));
+            }
+            queueGauge.set(queue.size());
+            queue.notifyAll();
+        }
+    }
+
+    private void send() {
+        while (!closed) {
+            Batch batch;
+            synchronized (queue) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                // the batch stays at the head of the queue until it is done, so it is never sent out of order
+                batch = queue.peekFirst();
+            }
+
+            var outcome = sendWithRetry(batch);
+            synchronized (queue) {
+                // the batch may have been dropped from the full queue while we were sending it
+                if (queue.peekFirst() == batch) {
+                    queue.removeFirst();
+                    samplesCounter.labelValues(outcome).inc(batch.samples());
+                }
+                queueGauge.set(queue.size());
+            }
+        }
+    }
+
+    /// @return The outcome of sending the batch, either `sent` or `dropped`.
+    private String sendWithRetry(Batch batch) {
+        var backoff = config.minBackoffMsOrDefault();
+        for (var attempt = 1; !closed; attempt++) {
+            var request = new Request.Builder()
+                    .url(config.url())
+                    .post(RequestBody.create(batch.body(), PROTOBUF))
+                    .header("Content-Encoding", "snappy")
+                    .header("User-Agent", "kubewatt")
+                    .header("X-Prometheus-Remote-Write-Version", "0.1.0");
+            if (config.headers() != null) {
+                config.headers().forEach(request::header);
+            }
+
+            var event = new StorageWriteEvent();
+            event.begin();
+            event.target = "remote-write";
+            event.series = batch.samples();
+            event.bytes = batch.body().length;
+            try (var response = client.newCall(request.build()).execute()) {
+                if (response.isSuccessful()) {
+                    return "sent";
+                }
+                if (response.code() != 429 && response.code() < 500) {
+                    log.error("Remote-write endpoint rejected {} samples with status {}: {}", batch.samples(), response.code(), response.body() == null ? "" : response.body().string());
+                    return "dropped";
+                }
+                log.warn("Remote-write attempt {} failed with status {}; retrying in {} ms", attempt, response.code(), backoff);
+            } catch (IOException e) {
+                log.warn("Remote-write attempt {} failed; retrying in {} ms", attempt, backoff, e);
+            } finally {
+                event.commit();
+            }
+
+            retriesCounter.inc();
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoff = Math.min(backoff * 2, config.maxBackoffMsOrDefault());
+        }
+        return "dropped";
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        sender.interrupt();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+}
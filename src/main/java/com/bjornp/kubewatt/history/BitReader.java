@@ -0,0 +1,34 @@
+package com.bjornp.kubewatt.history;
+
+import java.nio.ByteBuffer;
+
+/// Reads the bits written by a [BitWriter] from a region of a buffer, without copying it.
+class BitReader {
+    private final ByteBuffer buffer;
+
+    private final int offset;
+
+    /// The number of bits read
+    private long position = 0;
+
+    BitReader(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    /// Reads `count` bits as the lowest bits of the result.
+    long read(int count) {
+        var result = 0L;
+        for (var i = 0; i < count; i++) {
+            result = (result << 1) | (readBit() ? 1 : 0);
+        }
+        return result;
+    }
+
+    boolean readBit() {
+        var b = buffer.get(offset + (int) (position >>> 3));
+        var bit = (b & (0x80 >>> (position & 7))) != 0;
+        position++;
+        return bit;
+    }
+}
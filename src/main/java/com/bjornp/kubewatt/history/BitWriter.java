@@ -0,0 +1,38 @@
+package com.bjornp.kubewatt.history;
+
+import java.util.Arrays;
+
+/// Writes values of arbitrary bit length, most significant bit first.
+class BitWriter {
+    private byte[] bytes = new byte[64];
+
+    /// The number of bits written
+    private long position = 0;
+
+    /// Writes the lowest `count` bits of `value`.
+    void write(long value, int count) {
+        for (var i = count - 1; i >= 0; i--) {
+            writeBit(((value >>> i) & 1) == 1);
+        }
+    }
+
+    void writeBit(boolean bit) {
+        var index = (int) (position >>> 3);
+        if (index == bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        if (bit) {
+            bytes[index] |= (byte) (0x80 >>> (position & 7));
+        }
+        position++;
+    }
+
+    /// @return The written bits, padded with zeroes to a whole number of bytes.
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, (int) ((position + 7) >>> 3));
+    }
+
+    int sizeInBytes() {
+        return (int) ((position + 7) >>> 3);
+    }
+}
@@ -0,0 +1,144 @@
+package com.bjornp.kubewatt.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/// An immutable set of compressed series covering a period of time. Blocks are stored in files with the layout
+///
+/// ```
+/// int    magic 'KWB1'
+/// long   min timestamp
+/// long   max timestamp
+/// int    number of series
+/// per series:
+///   short  key length, key in UTF-8
+///   int    number of samples
+///   int    data length, Gorilla data
+/// ```
+///
+/// and read through a memory mapping, so the data of a block is only paged in when it is queried.
+class Block {
+    private static final int MAGIC = 0x4B574231;
+
+    /// @param offset The position in the buffer of the Gorilla data of the series.
+    record SeriesRef(int offset, int count) {
+    }
+
+    private final long minTime;
+
+    private final long maxTime;
+
+    private final ByteBuffer buffer;
+
+    private final Map<String, SeriesRef> series;
+
+    private Block(long minTime, long maxTime, ByteBuffer buffer, Map<String, SeriesRef> series) {
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.buffer = buffer;
+        this.series = series;
+    }
+
+    long getMinTime() {
+        return minTime;
+    }
+
+    long getMaxTime() {
+        return maxTime;
+    }
+
+    Map<String, SeriesRef> getSeries() {
+        return series;
+    }
+
+    /// @return A decoder for the samples of a series in this block, or `null` if the block does not contain it.
+    GorillaDecoder decoder(String key) {
+        var ref = series.get(key);
+        return ref == null ? null : new GorillaDecoder(buffer, ref.offset(), ref.count());
+    }
+
+    /// Encodes the given series into a block held in memory.
+    static Block of(long minTime, long maxTime, Map<String, GorillaEncoder> encoders) {
+        var buffer = ByteBuffer.allocate(size(encoders));
+        write(buffer, minTime, maxTime, encoders);
+        return read(buffer.flip());
+    }
+
+    /// Writes the given series to `file`. The block is written to a temporary file first and moved into place when
+    /// complete, so a crash never leaves a partial block behind.
+    static Block write(Path file, long minTime, long maxTime, Map<String, GorillaEncoder> encoders) throws IOException {
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(encoders));
+            write(buffer, minTime, maxTime, encoders);
+            buffer.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return open(file);
+    }
+
+    /// Maps a block file read-only. The mapping stays valid after the channel is closed.
+    /// @throws IOException If the file cannot be read or is not a block file.
+    static Block open(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid block file " + file, e);
+        }
+    }
+
+    private static int size(Map<String, GorillaEncoder> encoders) {
+        var size = 4 + 8 + 8 + 4;
+        for (var entry : encoders.entrySet()) {
+            size += 2 + entry.getKey().getBytes(StandardCharsets.UTF_8).length + 4 + 4 + entry.getValue().sizeInBytes();
+        }
+        return size;
+    }
+
+    private static void write(ByteBuffer buffer, long minTime, long maxTime, Map<String, GorillaEncoder> encoders) {
+        buffer.putInt(MAGIC);
+        buffer.putLong(minTime);
+        buffer.putLong(maxTime);
+        buffer.putInt(encoders.size());
+        for (var entry : encoders.entrySet()) {
+            var key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            var data = entry.getValue().toByteArray();
+            buffer.putShort((short) key.length);
+            buffer.put(key);
+            buffer.putInt(entry.getValue().getCount());
+            buffer.putInt(data.length);
+            buffer.put(data);
+        }
+    }
+
+    private static Block read(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a block");
+        }
+        var minTime = buffer.getLong(4);
+        var maxTime = buffer.getLong(12);
+        var seriesCount = buffer.getInt(20);
+        var series = new HashMap<String, SeriesRef>(seriesCount * 2);
+        var position = 24;
+        for (var i = 0; i < seriesCount; i++) {
+            var keyLength = buffer.getShort(position);
+            var key = new byte[keyLength];
+            buffer.get(position + 2, key);
+            position += 2 + keyLength;
+            var count = buffer.getInt(position);
+            var length = buffer.getInt(position + 4);
+            position += 8;
+            series.put(new String(key, StandardCharsets.UTF_8), new SeriesRef(position, count));
+            position += length;
+        }
+        return new Block(minTime, maxTime, buffer, series);
+    }
+}
@@ -0,0 +1,89 @@
+package com.bjornp.kubewatt.history;
+
+import java.nio.ByteBuffer;
+
+/// Reads back the samples written by a [GorillaEncoder].
+class GorillaDecoder {
+    private final BitReader reader;
+
+    private final int count;
+
+    private int read = 0;
+
+    private long timestamp;
+
+    private long delta;
+
+    private long value;
+
+    private int leading;
+
+    private int trailing;
+
+    GorillaDecoder(ByteBuffer buffer, int offset, int count) {
+        this.reader = new BitReader(buffer, offset);
+        this.count = count;
+    }
+
+    boolean hasNext() {
+        return read < count;
+    }
+
+    /// Advances to the next sample, after which it can be read with [#getTimestamp()] and [#getValue()].
+    void next() {
+        if (read == 0) {
+            timestamp = reader.read(64);
+            value = reader.read(64);
+        } else {
+            readTimestamp();
+            readValue();
+        }
+        read++;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    double getValue() {
+        return Double.longBitsToDouble(value);
+    }
+
+    private void readTimestamp() {
+        long deltaOfDelta;
+        if (!reader.readBit()) {
+            deltaOfDelta = 0;
+        } else if (!reader.readBit()) {
+            deltaOfDelta = signed(reader.read(7), 7);
+        } else if (!reader.readBit()) {
+            deltaOfDelta = signed(reader.read(9), 9);
+        } else if (!reader.readBit()) {
+            deltaOfDelta = signed(reader.read(12), 12);
+        } else {
+            deltaOfDelta = reader.read(64);
+        }
+        delta += deltaOfDelta;
+        timestamp += delta;
+    }
+
+    private void readValue() {
+        if (!reader.readBit()) {
+            return;
+        }
+        if (reader.readBit()) {
+            leading = (int) reader.read(5);
+            var length = (int) reader.read(6);
+            if (length == 0) {
+                length = 64;
+            }
+            trailing = 64 - leading - length;
+        }
+        var xor = reader.read(64 - leading - trailing) << trailing;
+        value ^= xor;
+    }
+
+    /// Sign-extends the lowest `bits` bits of `value`.
+    private static long signed(long value, int bits) {
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+}
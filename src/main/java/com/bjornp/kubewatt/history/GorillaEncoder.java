@@ -0,0 +1,101 @@
+package com.bjornp.kubewatt.history;
+
+/// Compresses a series of samples as in Facebook's Gorilla (Pelkonen et al., 2015). Timestamps are stored as the
+/// difference between consecutive deltas, which is zero for a fixed tick interval and then takes a single bit. Values
+/// are XOR-ed with the previous value and only the bits in between the leading and trailing zeroes are stored, which
+/// also takes a single bit when the value did not change.
+class GorillaEncoder {
+    private final BitWriter writer = new BitWriter();
+
+    private int count = 0;
+
+    private long previousTimestamp;
+
+    private long previousDelta;
+
+    private long previousValue;
+
+    private int previousLeading = -1;
+
+    private int previousTrailing;
+
+    /// @param timestampMillis Must not be before the previous timestamp.
+    void add(long timestampMillis, double value) {
+        var bits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            writer.write(timestampMillis, 64);
+            writer.write(bits, 64);
+        } else {
+            writeTimestamp(timestampMillis);
+            writeValue(bits);
+        }
+        previousTimestamp = timestampMillis;
+        previousValue = bits;
+        count++;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getLastTimestamp() {
+        return previousTimestamp;
+    }
+
+    byte[] toByteArray() {
+        return writer.toByteArray();
+    }
+
+    int sizeInBytes() {
+        return writer.sizeInBytes();
+    }
+
+    private void writeTimestamp(long timestampMillis) {
+        var delta = timestampMillis - previousTimestamp;
+        var deltaOfDelta = delta - previousDelta;
+        previousDelta = delta;
+
+        if (deltaOfDelta == 0) {
+            writer.writeBit(false);
+        } else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+            writer.write(0b10, 2);
+            writer.write(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+            writer.write(0b110, 3);
+            writer.write(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+            writer.write(0b1110, 4);
+            writer.write(deltaOfDelta, 12);
+        } else {
+            writer.write(0b1111, 4);
+            writer.write(deltaOfDelta, 64);
+        }
+    }
+
+    private void writeValue(long bits) {
+        var xor = bits ^ previousValue;
+        if (xor == 0) {
+            writer.writeBit(false);
+            return;
+        }
+        writer.writeBit(true);
+
+        // the leading zeroes are stored in 5 bits
+        var leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        var trailing = Long.numberOfTrailingZeros(xor);
+        if (previousLeading != -1 && leading >= previousLeading && trailing >= previousTrailing) {
+            // the meaningful bits fit in the window of the previous value
+            writer.writeBit(false);
+            writer.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+        } else {
+            var length = 64 - leading - trailing;
+            writer.writeBit(true);
+            writer.write(leading, 5);
+            // a length of 64 is stored as 0
+            writer.write(length, 6);
+            writer.write(xor >>> trailing, length);
+            previousLeading = leading;
+            previousTrailing = trailing;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.bjornp.kubewatt.history;
+
+import com.bjornp.kubewatt.estimator.ContainerPowerEstimator;
+import com.bjornp.kubewatt.jfr.StorageWriteEvent;
+import com.bjornp.kubewatt.utils.config.Config;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/// An embedded, append-only store of the power history. Samples of the current block period are compressed in memory
+/// by a [GorillaEncoder] per series. Once a tick falls in the next period, the head is written to an immutable block
+/// file in `path`, which is memory-mapped for queries. Block files older than the retention are deleted.
+///
+/// The head is written when the store is closed, so only an unclean shutdown loses the samples of the current period.
+@Slf4j
+public class PowerHistoryStore implements AutoCloseable {
+    private static final String SUFFIX = ".kwb";
+
+    /// Receives the samples of a query, series by series and in time order within a series.
+    public interface Visitor {
+        void series(String key);
+
+        void sample(long timestampMillis, double value);
+    }
+
+    private final Path path;
+
+    private final long blockMillis;
+
+    private final long retentionMillis;
+
+    /// The persisted blocks, in time order
+    private final List<Block> blocks = new ArrayList<>();
+
+    private final Map<Block, Path> blockFiles = new HashMap<>();
+
+    private Map<String, GorillaEncoder> head = new HashMap<>();
+
+    private long headStart = Long.MIN_VALUE;
+
+    /// The timestamp of the first sample in the head, which names its block file
+    private long headFirst;
+
+    public PowerHistoryStore(Config.HistoryConfig config) {
+        this.path = Path.of(config.path());
+        this.blockMillis = config.blockMinutesOrDefault() * 60_000L;
+        this.retentionMillis = config.retentionHours() * 3_600_000L;
+
+        try {
+            Files.createDirectories(path);
+            try (var files = Files.list(path)) {
+                for (var file : files.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).toList()) {
+                    try {
+                        addBlock(Block.open(file), file);
+                    } catch (IOException e) {
+                        log.error("Ignoring unreadable block {}", file, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        log.info("Opened power history in {} with {} blocks", path, blocks.size());
+    }
+
+    /// Records the power of a tick: one series per container, keyed 'node/namespace/pod/container', and one per node
+    /// with its measured power, keyed 'node'. The power of a node includes that of pods outside the scope and of
+    /// everything that does not run in a pod, so it is more than the sum of its containers and its static power.
+    ///
+    /// The samples are read from the last estimation of `estimator` and appended straight to their encoders. The
+    /// timestamp must not be before that of the previous call.
+    public synchronized void record(ContainerPowerEstimator estimator, long timestampMillis) {
+        var blockStart = timestampMillis - Math.floorMod(timestampMillis, blockMillis);
+        if (blockStart != headStart) {
+            flush();
+            headStart = blockStart;
+            headFirst = timestampMillis;
+            applyRetention(timestampMillis);
+        }
+        estimator.forEachNodePower((node, watts) -> append(node, timestampMillis, watts));
+        estimator.forEachContainerPower((node, namespace, pod, container, watts) ->
+                append(String.join("/", node, namespace, pod, container), timestampMillis, watts));
+    }
+
+    private void append(String key, long timestampMillis, double value) {
+        head.computeIfAbsent(key, k -> new GorillaEncoder()).add(timestampMillis, value);
+    }
+
+    /// Visits all samples between `start` and `end` (inclusive) of the series whose key matches `filter`. Series are
+    /// visited in order of their key.
+    public void query(Predicate<String> filter, long start, long end, Visitor visitor) {
+        // take the blocks under the lock and decode them without it, so a slow client does not hold up the ticks
+        var overlapping = new ArrayList<Block>();
+        synchronized (this) {
+            for (var block : blocks) {
+                if (block.getMaxTime() >= start && block.getMinTime() <= end) {
+                    overlapping.add(block);
+                }
+            }
+            if (!head.isEmpty() && headStart + blockMillis > start && headStart <= end) {
+                overlapping.add(Block.of(headFirst, headStart + blockMillis - 1, head));
+            }
+        }
+
+        var keys = new TreeSet<String>();
+        for (var block : overlapping) {
+            block.getSeries().keySet().stream().filter(filter).forEach(keys::add);
+        }
+        for (var key : keys) {
+            visitor.series(key);
+            for (var block : overlapping) {
+                var decoder = block.decoder(key);
+                if (decoder == null) {
+                    continue;
+                }
+                while (decoder.hasNext()) {
+                    decoder.next();
+                    if (decoder.getTimestamp() > end) {
+                        break;
+                    }
+                    if (decoder.getTimestamp() >= start) {
+                        visitor.sample(decoder.getTimestamp(), decoder.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+    }
+
+    private void flush() {
+        if (head.isEmpty()) {
+            return;
+        }
+        var maxTime = head.values().stream().mapToLong(GorillaEncoder::getLastTimestamp).max().orElse(headFirst);
+        // named after the first sample, so a restart within a block period writes a separate block
+        var file = path.resolve(headFirst + SUFFIX);
+        var event = new StorageWriteEvent();
+        event.begin();
+        event.target = "history";
+        event.series = head.size();
+        try {
+            addBlock(Block.write(file, headFirst, maxTime, head), file);
+            event.bytes = Files.size(file);
+            log.debug("Wrote {} series to {}", head.size(), file);
+        } catch (IOException e) {
+            log.error("Unable to write power history block {}", file, e);
+        } finally {
+            event.commit();
+        }
+        head = new HashMap<>();
+    }
+
+    private void addBlock(Block block, Path file) {
+        blocks.add(block);
+        blocks.sort(Comparator.comparingLong(Block::getMinTime));
+        blockFiles.put(block, file);
+    }
+
+    private void applyRetention(long nowMillis) {
+        var iterator = blocks.iterator();
+        while (iterator.hasNext()) {
+            var block = iterator.next();
+            if (block.getMaxTime() < nowMillis - retentionMillis) {
+                iterator.remove();
+                var file = blockFiles.remove(block);
+                try {
+                    // queries that are still reading the block keep their mapping
+                    Files.deleteIfExists(file);
+                    log.debug("Deleted expired block {}", file);
+                } catch (IOException e) {
+                    log.warn("Unable to delete expired block {}", file, e);
+                }
+            }
+        }
+    }
+}
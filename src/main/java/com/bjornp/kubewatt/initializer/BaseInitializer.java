@@ -5,7 +5,7 @@ import com.bjornp.kubewatt.collector.power.PowerCollector;
 import com.bjornp.kubewatt.collector.power.PowerCollectorFactory;
 import com.bjornp.kubewatt.utils.config.Config;
 import com.bjornp.kubewatt.utils.datastorage.DataStorageProviderFactory;
-import io.kubernetes.client.openapi.apis.CoreV1Api;
+import com.bjornp.kubewatt.utils.kubernetes.CoreApiReader;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
@@ -49,13 +49,15 @@ public class BaseInitializer {
 
     @SneakyThrows
     private Map<String, Double> findStaticPower() {
-        var api = new CoreV1Api();
-        var allPods = api.listPodForAllNamespaces().execute().getItems();
         var controlPlanePods = Config.get().collector().utilization().controlPlanePods();
-        allPods.removeIf(pod -> controlPlanePods.stream().anyMatch(cpPodName -> pod.getMetadata().getName().matches(cpPodName)));
-        if (!allPods.isEmpty()) {
-            throw new RuntimeException("Found pods that are not part of the control plane; cluster is not empty: %s"
-                    .formatted(allPods.stream().map(pod -> "%s/%s".formatted(pod.getMetadata().getNamespace(), pod.getMetadata().getName())).toList()));
+        var otherPods = new ArrayList<String>();
+        new CoreApiReader().forEachPod(null, null, null, pod -> {
+            if (controlPlanePods.stream().noneMatch(cpPodName -> pod.name().matches(cpPodName))) {
+                otherPods.add("%s/%s".formatted(pod.namespace(), pod.name()));
+            }
+        });
+        if (!otherPods.isEmpty()) {
+            throw new RuntimeException("Found pods that are not part of the control plane; cluster is not empty: %s".formatted(otherPods));
         }
 
         // initialize data structure
@@ -5,11 +5,12 @@ import com.bjornp.kubewatt.initializer.model.InitializationResult;
 import com.bjornp.kubewatt.collector.node.KubernetesNodeUtilizationCollector;
 import com.bjornp.kubewatt.collector.power.PowerCollector;
 import com.bjornp.kubewatt.collector.power.PowerCollectorFactory;
+import com.bjornp.kubewatt.utils.NodeWorkers;
 import com.bjornp.kubewatt.utils.config.Config;
 import com.bjornp.kubewatt.utils.datastorage.DataStorageProviderFactory;
 import io.kubernetes.client.custom.Quantity;
 import io.kubernetes.client.openapi.ApiException;
-import io.kubernetes.client.openapi.apis.CoreV1Api;
+import com.bjornp.kubewatt.utils.kubernetes.CoreApiReader;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.math3.distribution.UniformRealDistribution;
 import org.apache.commons.math3.fitting.PolynomialCurveFitter;
@@ -69,14 +70,9 @@ public class BootstrapInitializer {
 
         Map<String, Quantity> nodeNumCpus;
         try {
-            var api = new CoreV1Api();
-            var nodes = api.listNode().execute();
-            nodeNumCpus = nodes
-                    .getItems()
+            nodeNumCpus = new CoreApiReader().listNodes()
                     .stream()
-                    .collect(Collectors.toMap(node -> node.getMetadata().getName(),
-                            node -> node.getStatus().getCapacity().get("cpu")
-                    ));
+                    .collect(Collectors.toMap(CoreApiReader.Node::name, node -> node.capacity().get("cpu")));
         } catch (ApiException e) {
             throw new RuntimeException("Couldn't initialize using BootstrapInitialzer", e);
         }
@@ -142,19 +138,28 @@ public class BootstrapInitializer {
         }
         log.info(String.valueOf(controlPlaneMean));
 
-        // perform regression on power/CPU observations to calculate curve
-        return Config.get().collector().nodeNames().stream()
-                .collect(Collectors.toMap(node -> node, node -> {
+        // perform regression on power/CPU observations to calculate curve; nodes are fitted in parallel and each
+        // writes only its own element of staticPower
+        var nodes = Config.get().collector().nodeNames();
+        var staticPower = new double[nodes.size()];
+        NodeWorkers.forEachNode(nodes.size(), i -> {
+            var node = nodes.get(i);
             var fitter = PolynomialCurveFitter.create(1);
+            var nodeObservations = observations.get(node);
             if (Config.get().bootstrapInitializer().nodeHasSmt().get(node)) {
                 log.info("Node '{}' has SMT enabled; discarding top 50% of CPU usage values", node);
                 int nCpu = nodeNumCpus.get(node).getNumber().intValue() / 2;
-                observations.put(node, observations.get(node).stream().filter(observation -> observation.getX() <= nCpu).toList());
+                nodeObservations = nodeObservations.stream().filter(observation -> observation.getX() <= nCpu).toList();
             }
-            var d1Poly = fitter.fit(observations.get(node));
+            var d1Poly = fitter.fit(nodeObservations);
             var cpUtil = controlPlaneMean.get(node);
-            return d1Poly[0] + cpUtil * d1Poly[1];
-        }));
+            staticPower[i] = d1Poly[0] + cpUtil * d1Poly[1];
+        });
+        var result = new HashMap<String, Double>();
+        for (int i = 0; i < staticPower.length; ++i) {
+            result.put(nodes.get(i), staticPower[i]);
+        }
+        return result;
     }
 
     /// Verify that the collected data has sufficient variability and distribution to perform the upcoming regression with.
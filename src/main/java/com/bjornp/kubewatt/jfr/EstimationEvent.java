@@ -0,0 +1,18 @@
+package com.bjornp.kubewatt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/// A complete estimation of container power, including the collection of power and utilization.
+@Name("com.bjornp.kubewatt.Estimation")
+@Label("Estimation")
+@Category({"KubeWatt", "Estimator"})
+public class EstimationEvent extends Event {
+    @Label("Nodes")
+    public int nodes;
+
+    @Label("Containers")
+    public int containers;
+}
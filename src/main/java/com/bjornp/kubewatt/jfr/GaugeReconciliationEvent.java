@@ -0,0 +1,20 @@
+package com.bjornp.kubewatt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/// The update of the power gauge with the series of a tick.
+@Name("com.bjornp.kubewatt.GaugeReconciliation")
+@Label("Gauge Reconciliation")
+@Category({"KubeWatt", "Exporter"})
+public class GaugeReconciliationEvent extends Event {
+    @Label("Series")
+    public int series;
+
+    @Label("Removed Series")
+    @Description("Series that were exported in the previous tick but not in this one")
+    public int removed;
+}
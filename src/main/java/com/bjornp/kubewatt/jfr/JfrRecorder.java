@@ -0,0 +1,48 @@
+package com.bjornp.kubewatt.jfr;
+
+import com.bjornp.kubewatt.utils.config.Config;
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+
+/// A continuous flight recording with the JDK's `default` settings and all KubeWatt events, kept for the configured
+/// age. It can be dumped at any time with [#dump(Path)], so a latency spike can be related to GC, allocation and
+/// I/O after the fact.
+@Slf4j
+public class JfrRecorder implements AutoCloseable {
+    private final Recording recording;
+
+    public JfrRecorder(Config.JfrConfig config) {
+        try {
+            this.recording = new Recording(Configuration.getConfiguration("default"));
+        } catch (IOException | ParseException e) {
+            throw new RuntimeException("Unable to load the default JFR configuration", e);
+        }
+        recording.setName("kubewatt");
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofMinutes(config.maxAgeMinutesOrDefault()));
+        for (var event : List.<Class<? extends Event>>of(RedfishRequestEvent.class, KubernetesApiCallEvent.class, UtilizationCollectionEvent.class,
+                EstimationEvent.class, GaugeReconciliationEvent.class, StorageWriteEvent.class, TickEvent.class)) {
+            recording.enable(event);
+        }
+        recording.start();
+        log.info("Started flight recording, keeping the last {} minutes", config.maxAgeMinutesOrDefault());
+    }
+
+    /// Writes the recording so far to `file`. Recording continues.
+    public void dump(Path file) throws IOException {
+        recording.dump(file);
+    }
+
+    @Override
+    public void close() {
+        recording.close();
+    }
+}
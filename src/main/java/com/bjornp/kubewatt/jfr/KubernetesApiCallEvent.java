@@ -0,0 +1,28 @@
+package com.bjornp.kubewatt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/// A call to the Kubernetes API server, recorded by [KubernetesApiInterceptor].
+@Name("com.bjornp.kubewatt.KubernetesApiCall")
+@Label("Kubernetes API Call")
+@Category({"KubeWatt", "Kubernetes"})
+public class KubernetesApiCallEvent extends Event {
+    @Label("Method")
+    public String method;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Status")
+    public int status;
+
+    @Label("Response Bytes")
+    @Description("The length of the response body, or -1 when the server did not announce it")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,37 @@
+package com.bjornp.kubewatt.jfr;
+
+import io.kubernetes.client.openapi.ApiClient;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/// Records a [KubernetesApiCallEvent] for every call made through an [ApiClient]. Watches are recorded when their
+/// response headers arrive, not when the watch ends.
+public class KubernetesApiInterceptor implements Interceptor {
+    /// Adds the interceptor to the HTTP client of `client`.
+    public static ApiClient install(ApiClient client) {
+        return client.setHttpClient(client.getHttpClient().newBuilder().addInterceptor(new KubernetesApiInterceptor()).build());
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        var event = new KubernetesApiCallEvent();
+        if (!event.isEnabled()) {
+            return chain.proceed(chain.request());
+        }
+        event.begin();
+        event.method = chain.request().method();
+        event.path = chain.request().url().encodedPath();
+        try {
+            var response = chain.proceed(chain.request());
+            event.status = response.code();
+            event.bytes = response.body() == null ? -1 : response.body().contentLength();
+            return response;
+        } finally {
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.bjornp.kubewatt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/// A request to the Redfish API of a node's BMC.
+@Name("com.bjornp.kubewatt.RedfishRequest")
+@Label("Redfish Request")
+@Category({"KubeWatt", "Power"})
+public class RedfishRequestEvent extends Event {
+    @Label("Node")
+    public String node;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Status")
+    public int status;
+
+    @Label("Bytes Parsed")
+    @DataAmount
+    public long bytes;
+}
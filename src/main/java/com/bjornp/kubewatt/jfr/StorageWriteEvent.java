@@ -0,0 +1,25 @@
+package com.bjornp.kubewatt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/// A write of power data to storage outside the process.
+@Name("com.bjornp.kubewatt.StorageWrite")
+@Label("Storage Write")
+@Category({"KubeWatt", "Exporter"})
+public class StorageWriteEvent extends Event {
+    @Label("Target")
+    @Description("history or remote-write")
+    public String target;
+
+    @Label("Series")
+    public int series;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,15 @@
+package com.bjornp.kubewatt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/// One tick of the ESTIMATOR, from estimation until the metrics endpoint is refreshed.
+@Name("com.bjornp.kubewatt.Tick")
+@Label("Tick")
+@Category({"KubeWatt", "Estimator"})
+public class TickEvent extends Event {
+    @Label("Series")
+    public int series;
+}
@@ -0,0 +1,18 @@
+package com.bjornp.kubewatt.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/// The collection of container CPU utilization from the metrics API for all owned nodes.
+@Name("com.bjornp.kubewatt.UtilizationCollection")
+@Label("Utilization Collection")
+@Category({"KubeWatt", "Estimator"})
+public class UtilizationCollectionEvent extends Event {
+    @Label("Nodes")
+    public int nodes;
+
+    @Label("Containers")
+    public int containers;
+}
@@ -0,0 +1,16 @@
+package com.bjornp.kubewatt.model;
+
+import jakarta.annotation.Nullable;
+
+import java.util.Map;
+
+/// The metadata of a pod that is needed after utilization collection, taken from the pod lists the collector already
+/// performs.
+/// @param ownerKind The kind of the pod's controller, e.g. `ReplicaSet`, or `null` if the pod has no controller.
+/// @param ownerName The name of the pod's controller, or `null` if the pod has no controller.
+public record PodMetadata(
+        Map<String, String> labels,
+        @Nullable String ownerKind,
+        @Nullable String ownerName
+) {
+}
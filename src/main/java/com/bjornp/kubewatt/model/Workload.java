@@ -0,0 +1,9 @@
+package com.bjornp.kubewatt.model;
+
+/// The top-level controller of a pod, such as a Deployment, StatefulSet or DaemonSet. Pods without a controller are
+/// their own workload of kind `Pod`.
+public record Workload(
+        String kind,
+        String name
+) {
+}
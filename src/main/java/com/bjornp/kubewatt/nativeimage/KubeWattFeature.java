@@ -0,0 +1,71 @@
+package com.bjornp.kubewatt.nativeimage;
+
+import com.bjornp.kubewatt.collector.power.redfish.model.RedfishComputerSystem;
+import com.bjornp.kubewatt.collector.power.redfish.model.RedfishPowerControl;
+import com.bjornp.kubewatt.utils.config.Config;
+import io.kubernetes.client.util.Watch;
+import org.graalvm.nativeimage.hosted.Feature;
+import org.graalvm.nativeimage.hosted.RuntimeReflection;
+
+import java.util.List;
+
+/// Registers the classes that are (de)serialized or validated reflectively for native-image. Nested classes are
+/// registered as well, so records added to [Config] are picked up without changes here. Only loaded by native-image,
+/// through `native-image.properties`; the JVM never loads this class.
+public class KubeWattFeature implements Feature {
+    /// Read by Jackson and checked by Hibernate Validator
+    private static final List<Class<?>> CONFIG = List.of(
+            Config.class
+    );
+
+    /// Read by Gson through reflection. The models of client-java register their own type adapters and need nothing.
+    private static final List<Class<?>> JSON_MODELS = List.of(
+            RedfishComputerSystem.class,
+            RedfishPowerControl.class,
+            Watch.Response.class
+    );
+
+    /// Instantiated by logback while it reads `logback.xml`
+    private static final List<String> LOGBACK = List.of(
+            "ch.qos.logback.core.ConsoleAppender",
+            "ch.qos.logback.classic.encoder.PatternLayoutEncoder",
+            "ch.qos.logback.core.pattern.color.WhiteCompositeConverter",
+            "ch.qos.logback.core.pattern.color.MagentaCompositeConverter",
+            "ch.qos.logback.classic.pattern.color.HighlightingCompositeConverter"
+    );
+
+    @Override
+    public String getDescription() {
+        return "Registers KubeWatt's config, JSON models and logback components for reflection";
+    }
+
+    @Override
+    public void beforeAnalysis(BeforeAnalysisAccess access) {
+        CONFIG.forEach(KubeWattFeature::registerRecursively);
+        JSON_MODELS.forEach(KubeWattFeature::registerRecursively);
+        for (var name : LOGBACK) {
+            var type = access.findClassByName(name);
+            if (type != null) {
+                register(type);
+            }
+        }
+    }
+
+    private static void registerRecursively(Class<?> type) {
+        register(type);
+        for (var nested : type.getDeclaredClasses()) {
+            registerRecursively(nested);
+        }
+    }
+
+    private static void register(Class<?> type) {
+        RuntimeReflection.register(type);
+        RuntimeReflection.registerAllDeclaredConstructors(type);
+        RuntimeReflection.registerAllDeclaredMethods(type);
+        RuntimeReflection.registerAllDeclaredFields(type);
+        RuntimeReflection.registerAllRecordComponents(type);
+        RuntimeReflection.register(type.getDeclaredConstructors());
+        RuntimeReflection.register(type.getDeclaredMethods());
+        RuntimeReflection.register(type.getDeclaredFields());
+    }
+}
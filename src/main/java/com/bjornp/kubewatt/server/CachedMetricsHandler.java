@@ -0,0 +1,122 @@
+package com.bjornp.kubewatt.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import io.prometheus.metrics.expositionformats.ExpositionFormatWriter;
+import io.prometheus.metrics.expositionformats.ExpositionFormats;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/// Serves `/metrics` from a body that is rendered once per tick instead of once per scrape. [#refresh()] takes a
+/// snapshot of the registry and renders it in the Prometheus text format, gzip-compressed, which is what Prometheus
+/// asks for. Other formats (OpenMetrics, protobuf) and uncompressed bodies are rendered from the same snapshot by the
+/// first scraper that asks for them and then reused until the next refresh. Serving a scrape is therefore a copy of a
+/// byte array, regardless of how many scrapers there are.
+@Slf4j
+public final class CachedMetricsHandler implements HttpHandler {
+    private static final String TEXT_FORMAT = "text/plain";
+
+    private final PrometheusRegistry registry;
+
+    private final ExpositionFormats formats = ExpositionFormats.init();
+
+    /// Render buffers, reused across ticks. Only used while holding the lock on this handler.
+    private final RenderBuffer plainBuffer = new RenderBuffer();
+
+    private final RenderBuffer gzipBuffer = new RenderBuffer();
+
+    private volatile Rendering current;
+
+    public CachedMetricsHandler(PrometheusRegistry registry) {
+        this.registry = registry;
+        refresh();
+    }
+
+    /// Take a new snapshot of the registry. Should be called after each tick has updated its metrics.
+    public void refresh() {
+        var rendering = new Rendering(registry.scrape());
+        rendering.get(formats.findWriter(TEXT_FORMAT), true);
+        current = rendering;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var writer = formats.findWriter(Objects.requireNonNullElse(exchange.getRequestHeaders().getFirst("Accept"), TEXT_FORMAT));
+            var acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            var gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            var body = current.get(writer, gzip);
+
+            exchange.getResponseHeaders().set("Content-Type", writer.getContentType());
+            exchange.getResponseHeaders().set("Vary", "Accept, Accept-Encoding");
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    /// The bodies rendered from a single snapshot, keyed by content type and encoding.
+    private class Rendering {
+        private final MetricSnapshots snapshots;
+
+        private final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+
+        private Rendering(MetricSnapshots snapshots) {
+            this.snapshots = snapshots;
+        }
+
+        private byte[] get(ExpositionFormatWriter writer, boolean gzip) {
+            var key = gzip ? writer.getContentType() + ";gzip" : writer.getContentType();
+            return bodies.computeIfAbsent(key, k -> render(writer, gzip));
+        }
+
+        private byte[] render(ExpositionFormatWriter writer, boolean gzip) {
+            synchronized (CachedMetricsHandler.this) {
+                try {
+                    plainBuffer.reset();
+                    writer.write(plainBuffer, snapshots);
+                    if (!gzip) {
+                        return plainBuffer.toByteArray();
+                    }
+                    gzipBuffer.reset();
+                    try (var out = new GZIPOutputStream(gzipBuffer, 8192)) {
+                        plainBuffer.writeTo(out);
+                    }
+                    log.debug("Rendered {} metrics: {} bytes, {} bytes compressed", writer.getContentType(), plainBuffer.size(), gzipBuffer.size());
+                    return gzipBuffer.toByteArray();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /// A ByteArrayOutputStream whose backing array is kept at its largest size across resets, so rendering does not
+    /// grow a new array every tick.
+    private static class RenderBuffer extends ByteArrayOutputStream {
+        private RenderBuffer() {
+            super(64 * 1024);
+        }
+
+        @Override
+        public synchronized byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+    }
+}
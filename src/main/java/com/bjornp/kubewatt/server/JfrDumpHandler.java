@@ -0,0 +1,44 @@
+package com.bjornp.kubewatt.server;
+
+import com.bjornp.kubewatt.jfr.JfrRecorder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+/// Dumps the continuous flight recording on `/debug/jfr` as a `.jfr` file, which can be opened in JDK Mission Control
+/// or with `jfr print`.
+@Slf4j
+public class JfrDumpHandler implements HttpHandler {
+    public static final String PATH = "/debug/jfr";
+
+    private final JfrRecorder recorder;
+
+    public JfrDumpHandler(JfrRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                QueryParameters.sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+
+            var file = Files.createTempFile("kubewatt-", ".jfr");
+            try {
+                recorder.dump(file);
+                log.info("Dumped flight recording of {} bytes", Files.size(file));
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"kubewatt.jfr\"");
+                exchange.sendResponseHeaders(200, Files.size(file));
+                Files.copy(file, exchange.getResponseBody());
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.bjornp.kubewatt.server;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/// The HTTP server of the ESTIMATOR and the RAPL agent. It serves the cached `/metrics` exposition and a `/-/healthy`
+/// check; other components can register additional endpoints on the same port with [#addHandler(String, HttpHandler)].
+@Slf4j
+public class KubeWattHttpServer implements AutoCloseable {
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    public KubeWattHttpServer(int port, int threads, CachedMetricsHandler metricsHandler) throws IOException {
+        var threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "kubewatt-http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/metrics", metricsHandler);
+        server.createContext("/-/healthy", exchange -> {
+            try (exchange) {
+                var body = "Exporter is healthy.\n".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+        });
+        server.start();
+        log.info("Started HTTP server on port {} with {} threads", port, threads);
+    }
+
+    public void addHandler(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,132 @@
+package com.bjornp.kubewatt.server;
+
+import com.bjornp.kubewatt.history.PowerHistoryStore;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+/// Serves range queries over the [PowerHistoryStore] on `/api/v1/history`. The query parameters are
+///
+/// - `start` and `end`: the range in milliseconds since the epoch. `end` defaults to now and `start` to an hour before
+///   `end`.
+/// - `level`: `node` for the measured power per node, or `container` (the default) for the power per container.
+/// - `node`, `namespace`, `pod` and `container`: optional filters on the series.
+///
+/// The series are streamed as `{"series":[{"node":..,"namespace":..,"pod":..,"container":..,"samples":[[t,v],..]},..]}`.
+public class PowerHistoryHandler implements HttpHandler {
+    public static final String PATH = "/api/v1/history";
+
+    private final PowerHistoryStore store;
+
+    public PowerHistoryHandler(PowerHistoryStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                QueryParameters.sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+
+            var parameters = QueryParameters.parse(exchange.getRequestURI().getRawQuery());
+            long start;
+            long end;
+            try {
+                end = parameters.containsKey("end") ? Long.parseLong(parameters.get("end")) : System.currentTimeMillis();
+                start = parameters.containsKey("start") ? Long.parseLong(parameters.get("start")) : end - 3_600_000L;
+            } catch (NumberFormatException e) {
+                QueryParameters.sendError(exchange, 400, "start and end must be in milliseconds since the epoch");
+                return;
+            }
+            var level = parameters.getOrDefault("level", "container");
+            if (!level.equals("node") && !level.equals("container")) {
+                QueryParameters.sendError(exchange, 400, "level must be node or container");
+                return;
+            }
+
+            // keys are 'node' or 'node/namespace/pod/container'
+            var values = new String[]{parameters.get("node"), parameters.get("namespace"), parameters.get("pod"), parameters.get("container")};
+            var parts = level.equals("node") ? 1 : 4;
+            Predicate<String> filter = key -> {
+                var split = key.split("/");
+                if (split.length != parts) {
+                    return false;
+                }
+                for (var i = 0; i < parts; i++) {
+                    if (values[i] != null && !values[i].equals(split[i])) {
+                        return false;
+                    }
+                }
+                return true;
+            };
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            try (var writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)))) {
+                writer.beginObject();
+                writer.name("series").beginArray();
+                var seriesWriter = new SeriesWriter(writer);
+                store.query(filter, start, end, seriesWriter);
+                seriesWriter.finish();
+                writer.endArray();
+                writer.endObject();
+            }
+        }
+    }
+
+    /// Writes each series as an object with its labels and an array of `[timestamp, value]` samples.
+    private static class SeriesWriter implements PowerHistoryStore.Visitor {
+        private final JsonWriter writer;
+
+        private boolean open = false;
+
+        private SeriesWriter(JsonWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void series(String key) {
+            try {
+                finish();
+                var split = key.split("/");
+                writer.beginObject();
+                writer.name("node").value(split[0]);
+                if (split.length == 4) {
+                    writer.name("namespace").value(split[1]);
+                    writer.name("pod").value(split[2]);
+                    writer.name("container").value(split[3]);
+                }
+                writer.name("samples").beginArray();
+                open = true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void sample(long timestampMillis, double value) {
+            try {
+                writer.beginArray().value(timestampMillis).value(value).endArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /// Closes the last series, if any
+        private void finish() throws IOException {
+            if (open) {
+                writer.endArray().endObject();
+                open = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.bjornp.kubewatt.server;
+
+import com.bjornp.kubewatt.estimator.ContainerPowerEstimator;
+import com.bjornp.kubewatt.model.PodMetadata;
+import com.bjornp.kubewatt.utils.kubernetes.LabelSelector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// The container power of one tick with secondary indexes by node, namespace, pod and pod label. An index is built once
+/// per tick and never changed afterwards, so queries can read it without locking while the next one is being built.
+class PowerIndex {
+    record Entry(
+            String node,
+            String namespace,
+            String pod,
+            String container,
+            double watts,
+            Map<String, String> labels
+    ) {
+    }
+
+    static final PowerIndex EMPTY = new PowerIndex(0, List.of());
+
+    private final long timestampMillis;
+
+    private final List<Entry> entries;
+
+    private final Map<String, List<Entry>> byNode = new HashMap<>();
+
+    private final Map<String, List<Entry>> byNamespace = new HashMap<>();
+
+    /// Keyed by 'namespace/pod'
+    private final Map<String, List<Entry>> byPod = new HashMap<>();
+
+    /// Keyed by label key and then label value
+    private final Map<String, Map<String, List<Entry>>> byLabel = new HashMap<>();
+
+    private PowerIndex(long timestampMillis, List<Entry> entries) {
+        this.timestampMillis = timestampMillis;
+        this.entries = entries;
+        for (var entry : entries) {
+            byNode.computeIfAbsent(entry.node(), k -> new ArrayList<>()).add(entry);
+            byNamespace.computeIfAbsent(entry.namespace(), k -> new ArrayList<>()).add(entry);
+            byPod.computeIfAbsent(entry.namespace() + "/" + entry.pod(), k -> new ArrayList<>()).add(entry);
+            entry.labels().forEach((key, value) -> byLabel
+                    .computeIfAbsent(key, k -> new HashMap<>())
+                    .computeIfAbsent(value, k -> new ArrayList<>())
+                    .add(entry));
+        }
+    }
+
+    /// Indexes the containers of the last estimation of `estimator`.
+    static PowerIndex build(ContainerPowerEstimator estimator, long timestampMillis) {
+        var entries = new ArrayList<Entry>();
+        estimator.forEachContainerPower((node, namespace, pod, container, watts) -> entries.add(new Entry(
+                node,
+                namespace,
+                pod,
+                container,
+                watts,
+                estimator.getPodMetadata(namespace, pod).map(PodMetadata::labels).orElse(Map.of())
+        )));
+        return new PowerIndex(timestampMillis, entries);
+    }
+
+    long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /// Finds the entries matching all given criteria. The smallest index that applies is scanned and the remaining
+    /// criteria are checked per entry.
+    /// @param node Optional
+    /// @param namespace Optional
+    /// @param pod Optional; requires `namespace`.
+    /// @param selector Optional
+    List<Entry> find(String node, String namespace, String pod, LabelSelector selector) {
+        var candidates = entries;
+        if (node != null) {
+            candidates = smallest(candidates, byNode.getOrDefault(node, List.of()));
+        }
+        if (namespace != null) {
+            candidates = smallest(candidates, pod == null
+                                              ? byNamespace.getOrDefault(namespace, List.of())
+                                              : byPod.getOrDefault(namespace + "/" + pod, List.of()));
+        }
+        if (selector != null) {
+            for (var requirement : selector.equals().entrySet()) {
+                candidates = smallest(candidates, byLabel.getOrDefault(requirement.getKey(), Map.of()).getOrDefault(requirement.getValue(), List.of()));
+            }
+        }
+
+        var result = new ArrayList<Entry>(candidates.size());
+        for (var entry : candidates) {
+            if ((node == null || node.equals(entry.node()))
+                    && (namespace == null || namespace.equals(entry.namespace()))
+                    && (pod == null || pod.equals(entry.pod()))
+                    && (selector == null || selector.matches(entry.labels()))) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private static List<Entry> smallest(List<Entry> a, List<Entry> b) {
+        return a.size() <= b.size() ? a : b;
+    }
+}
@@ -0,0 +1,87 @@
+package com.bjornp.kubewatt.server;
+
+import com.bjornp.kubewatt.estimator.ContainerPowerEstimator;
+import com.bjornp.kubewatt.utils.kubernetes.LabelSelector;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/// Serves the container power of the last tick as JSON on `/api/v1/containers`. Results can be narrowed down with the
+/// query parameters `node`, `namespace`, `pod` (together with `namespace`) and `selector`, a Kubernetes label selector
+/// on the pod labels. For example, `/api/v1/containers?namespace=shop&selector=app%3Dweb`.
+///
+/// Queries are answered from a [PowerIndex] that is replaced as a whole by [#update(long)] after each tick. The
+/// response is written to the client while iterating over the matches, without building it in memory first.
+public class PowerQueryHandler implements HttpHandler {
+    public static final String PATH = "/api/v1/containers";
+
+    private final ContainerPowerEstimator estimator;
+
+    private volatile PowerIndex index = PowerIndex.EMPTY;
+
+    public PowerQueryHandler(ContainerPowerEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    /// Index the result of a tick. Should be called after each estimation.
+    public void update(long timestampMillis) {
+        index = PowerIndex.build(estimator, timestampMillis);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                QueryParameters.sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+
+            var parameters = QueryParameters.parse(exchange.getRequestURI().getRawQuery());
+            var node = parameters.get("node");
+            var namespace = parameters.get("namespace");
+            var pod = parameters.get("pod");
+            if (pod != null && namespace == null) {
+                QueryParameters.sendError(exchange, 400, "The pod parameter requires the namespace parameter");
+                return;
+            }
+            LabelSelector selector;
+            try {
+                selector = parameters.containsKey("selector") ? LabelSelector.parse(parameters.get("selector")) : null;
+            } catch (IllegalArgumentException e) {
+                QueryParameters.sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            // read the index once, so the whole response is from the same tick
+            var index = this.index;
+            var matches = index.find(node, namespace, pod, selector);
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            try (var writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)))) {
+                var total = 0.0;
+                writer.beginObject();
+                writer.name("timestamp").value(index.getTimestampMillis());
+                writer.name("containers").beginArray();
+                for (var entry : matches) {
+                    writer.beginObject();
+                    writer.name("node").value(entry.node());
+                    writer.name("namespace").value(entry.namespace());
+                    writer.name("pod").value(entry.pod());
+                    writer.name("container").value(entry.container());
+                    writer.name("watts").value(entry.watts());
+                    writer.endObject();
+                    total += entry.watts();
+                }
+                writer.endArray();
+                writer.name("total_watts").value(total);
+                writer.endObject();
+            }
+        }
+    }
+}
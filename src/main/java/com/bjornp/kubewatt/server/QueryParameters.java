@@ -0,0 +1,43 @@
+package com.bjornp.kubewatt.server;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/// Helpers shared by the JSON API handlers.
+@Slf4j
+class QueryParameters {
+    private QueryParameters() {
+    }
+
+    /// @return The decoded query parameters. Of a repeated parameter, the last value is kept.
+    static Map<String, String> parse(String rawQuery) {
+        var result = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return result;
+        }
+        for (var parameter : rawQuery.split("&")) {
+            var parts = parameter.split("=", 2);
+            if (!parts[0].isEmpty()) {
+                result.put(URLDecoder.decode(parts[0], StandardCharsets.UTF_8), parts.length == 1 ? "" : URLDecoder.decode(parts[1], StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        log.debug("Rejected query {}: {}", exchange.getRequestURI(), message);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, 0);
+        try (var writer = new JsonWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            writer.beginObject().name("error").value(message).endObject();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.bjornp.kubewatt.server;
+
+import com.bjornp.kubewatt.collector.power.rapl.RaplAgent;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/// Serves the last RAPL sample of a node agent as JSON on `/rapl`, e.g.
+/// `{"node":"node-1","energy-joules":81234.5,"seconds":904.2,"watts":87.3}`. Answers 503 until the agent has taken its
+/// first sample.
+public class RaplHandler implements HttpHandler {
+    public static final String PATH = "/rapl";
+
+    private final String node;
+
+    private final RaplAgent agent;
+
+    public RaplHandler(String node, RaplAgent agent) {
+        this.node = node;
+        this.agent = agent;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                QueryParameters.sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+            var sample = agent.latest();
+            if (sample.isEmpty()) {
+                QueryParameters.sendError(exchange, 503, "No RAPL sample yet");
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            try (var writer = new JsonWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                writer.beginObject();
+                writer.name("node").value(node);
+                writer.name("energy-joules").value(sample.get().energyJoules());
+                writer.name("seconds").value(sample.get().seconds());
+                writer.name("watts").value(sample.get().watts());
+                writer.endObject();
+            }
+        }
+    }
+}
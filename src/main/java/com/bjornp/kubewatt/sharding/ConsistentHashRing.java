@@ -0,0 +1,55 @@
+package com.bjornp.kubewatt.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/// An immutable consistent hash ring. Every member is placed on the ring `virtualNodes` times so that keys are spread
+/// evenly. When a member joins or leaves only the keys adjacent to its points move, so a rebalance moves about 1/N of
+/// the nodes instead of reshuffling all of them.
+public class ConsistentHashRing {
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    private final Set<String> members;
+
+    public ConsistentHashRing(Collection<String> members, int virtualNodes) {
+        this.members = new TreeSet<>(members);
+        for (var member : this.members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash("%s#%d".formatted(member, i)), member);
+            }
+        }
+    }
+
+    public Set<String> getMembers() {
+        return members;
+    }
+
+    /// @return The member that owns `key`, or `null` if the ring is empty.
+    public String ownerOf(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        var entry = ring.ceilingEntry(hash(key));
+        return (entry == null ? ring.firstEntry() : entry).getValue();
+    }
+
+    /// The first 8 bytes of the MD5 digest. MD5 is not used for security here, only because it is well distributed and
+    /// every replica computes the same value regardless of JVM.
+    private static long hash(String key) {
+        try {
+            var digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
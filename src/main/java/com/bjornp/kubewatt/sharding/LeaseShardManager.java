@@ -0,0 +1,178 @@
+package com.bjornp.kubewatt.sharding;
+
+import com.bjornp.kubewatt.utils.config.Config;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.CoordinationV1Api;
+import io.kubernetes.client.openapi.models.V1DeleteOptions;
+import io.kubernetes.client.openapi.models.V1Lease;
+import io.kubernetes.client.openapi.models.V1LeaseSpec;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/// Divides nodes over replicas using Kubernetes Leases for membership. Every replica keeps a Lease named
+/// `<group>-<identity>` alive in the configured namespace. Replicas whose Lease has not been renewed within its duration
+/// are considered gone, and their Leases are deleted so replicas that crashed do not leave them behind. The live members
+/// form a consistent hash ring and each node is owned by exactly one member.
+///
+/// The identity of a replica is taken from the `KW_POD_NAME` environment variable, falling back to the hostname.
+@Slf4j
+public class LeaseShardManager implements ShardManager {
+    private static final String GROUP_LABEL = "kubewatt.bjornp.com/shard-group";
+
+    private final Config.ShardingConfig config;
+
+    private final String identity;
+
+    private final String leaseName;
+
+    private final CoordinationV1Api api = new CoordinationV1Api();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final AtomicReference<ConsistentHashRing> ring = new AtomicReference<>();
+
+    protected LeaseShardManager(Config.ShardingConfig config) {
+        this.config = config;
+        this.identity = Optional.ofNullable(System.getenv("KW_POD_NAME")).orElseGet(LeaseShardManager::hostname);
+        this.leaseName = "%s-%s".formatted(config.group(), identity);
+        this.ring.set(new ConsistentHashRing(List.of(identity), config.virtualNodes()));
+
+        // register and learn the other members before the first tick so we do not briefly claim every node
+        heartbeat();
+
+        long period = Math.max(1, config.leaseDurationSeconds() / 3);
+        scheduler.scheduleWithFixedDelay(this::heartbeat, period, period, TimeUnit.SECONDS);
+        log.info("Joined shard group '{}' as '{}'", config.group(), identity);
+    }
+
+    @Override
+    public boolean owns(String node) {
+        return identity.equals(ring.get().ownerOf(node));
+    }
+
+    private void heartbeat() {
+        try {
+            renewLease();
+            refreshMembers();
+        } catch (ApiException e) {
+            // keep the previous ring; a short period of duplicate exports is preferable to a gap in the data
+            log.warn("Unable to update shard membership (HTTP {}): {}", e.getCode(), e.getResponseBody());
+        } catch (RuntimeException e) {
+            log.warn("Unable to update shard membership", e);
+        }
+    }
+
+    private void renewLease() throws ApiException {
+        var now = OffsetDateTime.now(ZoneOffset.UTC);
+        V1Lease lease;
+        try {
+            lease = api.readNamespacedLease(leaseName, config.namespace()).execute();
+        } catch (ApiException e) {
+            if (e.getCode() != 404) {
+                throw e;
+            }
+            lease = new V1Lease()
+                    .metadata(new V1ObjectMeta()
+                            .name(leaseName)
+                            .namespace(config.namespace())
+                            .labels(Map.of(GROUP_LABEL, config.group())))
+                    .spec(new V1LeaseSpec()
+                            .holderIdentity(identity)
+                            .acquireTime(now)
+                            .renewTime(now)
+                            .leaseDurationSeconds(config.leaseDurationSeconds()));
+            api.createNamespacedLease(config.namespace(), lease).execute();
+            log.debug("Created shard lease {}", leaseName);
+            return;
+        }
+
+        lease.getSpec()
+                .holderIdentity(identity)
+                .renewTime(now)
+                .leaseDurationSeconds(config.leaseDurationSeconds());
+        api.replaceNamespacedLease(leaseName, config.namespace(), lease).execute();
+    }
+
+    private void refreshMembers() throws ApiException {
+        var now = OffsetDateTime.now(ZoneOffset.UTC);
+        var leases = api.listNamespacedLease(config.namespace())
+                .labelSelector("%s=%s".formatted(GROUP_LABEL, config.group()))
+                .execute()
+                .getItems();
+
+        var members = new HashSet<String>();
+        members.add(identity);
+        for (var lease : leases) {
+            var spec = lease.getSpec();
+            if (spec == null || spec.getHolderIdentity() == null || spec.getRenewTime() == null) {
+                continue;
+            }
+            var duration = Optional.ofNullable(spec.getLeaseDurationSeconds()).orElse(config.leaseDurationSeconds());
+            if (spec.getRenewTime().plusSeconds(duration).isAfter(now)) {
+                members.add(spec.getHolderIdentity());
+            } else if (!leaseName.equals(lease.getMetadata().getName())) {
+                deleteExpiredLease(lease);
+            }
+        }
+
+        var current = ring.get();
+        if (!current.getMembers().equals(members)) {
+            log.info("Shard membership changed from {} to {}; rebalancing nodes", current.getMembers(), members);
+            ring.set(new ConsistentHashRing(members, config.virtualNodes()));
+        }
+    }
+
+    /// Deletes the Lease of a replica that stopped renewing it, e.g. because it crashed. The delete only succeeds if the
+    /// Lease was not changed since it was listed, so a replica that renewed it in the meantime keeps it.
+    private void deleteExpiredLease(V1Lease lease) {
+        var name = lease.getMetadata().getName();
+        try {
+            api.deleteNamespacedLease(name, config.namespace())
+                    .body(new V1DeleteOptions().preconditions(new V1Preconditions()
+                            .uid(lease.getMetadata().getUid())
+                            .resourceVersion(lease.getMetadata().getResourceVersion())))
+                    .execute();
+            log.info("Deleted expired shard lease {}", name);
+        } catch (ApiException e) {
+            // 404: another replica deleted it first; 409: it was renewed after all
+            if (e.getCode() != 404 && e.getCode() != 409) {
+                log.warn("Unable to delete expired shard lease {} (HTTP {}): {}", name, e.getCode(), e.getResponseBody());
+            }
+        }
+    }
+
+    /// Stops renewing and deletes our Lease so the other replicas take over our nodes right away instead of after the
+    /// Lease expires.
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            api.deleteNamespacedLease(leaseName, config.namespace()).execute();
+            log.info("Left shard group '{}'", config.group());
+        } catch (ApiException e) {
+            log.warn("Unable to delete shard lease {}; it will expire on its own", leaseName);
+        }
+    }
+
+    private static String hostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new RuntimeException("Unable to determine replica identity; set KW_POD_NAME", e);
+        }
+    }
+}
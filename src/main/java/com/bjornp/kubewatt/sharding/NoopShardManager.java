@@ -0,0 +1,17 @@
+package com.bjornp.kubewatt.sharding;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/// Used when sharding is disabled; this replica owns every node.
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+public class NoopShardManager implements ShardManager {
+    @Override
+    public boolean owns(String node) {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,18 @@
+package com.bjornp.kubewatt.sharding;
+
+import java.util.Collection;
+import java.util.List;
+
+/// A ShardManager decides which nodes this KubeWatt replica is responsible for. Only owned nodes have their power
+/// polled and their containers exported. When sharding is disabled, every node is owned.
+public interface ShardManager extends AutoCloseable {
+    boolean owns(String node);
+
+    /// @return The subset of `nodes` that is owned by this replica, in the same order.
+    default List<String> ownedNodes(Collection<String> nodes) {
+        return nodes.stream().filter(this::owns).toList();
+    }
+
+    @Override
+    void close();
+}
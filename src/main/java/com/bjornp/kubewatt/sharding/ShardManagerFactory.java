@@ -0,0 +1,16 @@
+package com.bjornp.kubewatt.sharding;
+
+import com.bjornp.kubewatt.utils.config.Config;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+public class ShardManagerFactory {
+    public static ShardManager getShardManager() {
+        var sharding = Config.get().sharding();
+        if (sharding == null || !sharding.enabled()) {
+            return new NoopShardManager();
+        }
+        log.info("Sharding enabled; nodes are divided over replicas in group '{}'", sharding.group());
+        return new LeaseShardManager(sharding);
+    }
+}
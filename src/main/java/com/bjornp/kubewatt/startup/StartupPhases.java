@@ -0,0 +1,56 @@
+package com.bjornp.kubewatt.startup;
+
+import io.prometheus.metrics.core.metrics.Gauge;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/// Measures the phases of startup. Every phase is exported as `kubewatt_startup_phase_seconds{phase}` as soon as it
+/// completes, and [#logSummary()] logs the breakdown once KubeWatt is up. Phases may run concurrently, so their sum can
+/// exceed the total.
+@Slf4j
+@UtilityClass
+public class StartupPhases {
+    private static final Gauge phaseGauge = Gauge.builder()
+            .name("kubewatt_startup_phase_seconds")
+            .help("Duration of each phase of the last startup in seconds")
+            .labelNames("phase")
+            .register();
+
+    /// In order of completion
+    private static final Map<String, Duration> phases = new LinkedHashMap<>();
+
+    /// A phase of startup, which may throw a checked exception
+    public interface Phase<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /// Runs `phase` and records how long it took, also when it throws.
+    public static <T, E extends Exception> T time(String name, Phase<T, E> phase) throws E {
+        var start = System.nanoTime();
+        try {
+            return phase.run();
+        } finally {
+            record(name, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    public static synchronized void record(String phase, Duration duration) {
+        phases.put(phase, duration);
+        phaseGauge.labelValues(phase).set(duration.toNanos() / 1e9);
+        log.debug("Startup phase {} took {} ms", phase, duration.toMillis());
+    }
+
+    /// Logs all phases so far and the time since `start`, which is also exported as phase `total`.
+    public static synchronized void logSummary(long startNanos) {
+        record("total", Duration.ofNanos(System.nanoTime() - startNanos));
+        log.info("Startup took {} ms: {}", phases.get("total").toMillis(), phases.entrySet().stream()
+                .filter(entry -> !entry.getKey().equals("total"))
+                .map(entry -> "%s %d ms".formatted(entry.getKey(), entry.getValue().toMillis()))
+                .collect(Collectors.joining(", ")));
+    }
+}
@@ -0,0 +1,44 @@
+package com.bjornp.kubewatt.utils;
+
+import com.bjornp.kubewatt.utils.config.Config;
+import jakarta.annotation.Nullable;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/// Runs per-node work on a fork-join pool of `parallelism` threads. Work is passed the index of a node, so each task
+/// can write its result to its own array element and results are merged without locking.
+@UtilityClass
+@Slf4j
+public class NodeWorkers {
+    /// Calls `work` for every index in `[0, count)`, in parallel when there is more than one node and thread. Returns
+    /// when all calls have finished; an exception thrown by any of them is rethrown.
+    public static void forEachNode(int count, IntConsumer work) {
+        forEachNode(PoolHolder.POOL, count, work);
+    }
+
+    /// Same as [#forEachNode(int, IntConsumer)], on `pool`, or on the calling thread if `pool` is `null`.
+    static void forEachNode(@Nullable ForkJoinPool pool, int count, IntConsumer work) {
+        if (count < 2 || pool == null) {
+            for (int i = 0; i < count; ++i) {
+                work.accept(i);
+            }
+            return;
+        }
+        pool.submit(() -> IntStream.range(0, count).parallel().forEach(work)).join();
+    }
+
+    private static class PoolHolder {
+        /// `null` when `parallelism` is 1
+        private static final ForkJoinPool POOL;
+
+        static {
+            var parallelism = Config.get().parallelismOrDefault();
+            log.info("Dividing per-node work over {} threads", parallelism);
+            POOL = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.bjornp.kubewatt.utils;
 
+import com.bjornp.kubewatt.jfr.KubernetesApiInterceptor;
 import io.kubernetes.client.openapi.ApiClient;
 import io.kubernetes.client.util.ClientBuilder;
 import lombok.experimental.UtilityClass;
@@ -12,7 +13,7 @@ import java.io.IOException;
 public class Utils {
     public static ApiClient kubernetesClient() {
         try {
-            return ClientBuilder.standard().build();
+            return KubernetesApiInterceptor.install(ClientBuilder.standard().build());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -1,6 +1,8 @@
 package com.bjornp.kubewatt.utils.config;
 
+import com.bjornp.kubewatt.exporter.AggregationLevel;
 import com.bjornp.kubewatt.utils.datastorage.DataStorageMode;
+import com.bjornp.kubewatt.utils.kubernetes.LabelSelector;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import jakarta.annotation.Nullable;
@@ -21,18 +23,56 @@ import java.util.Map;
 /// @param collector Configuration of the collector components, such as the PowerCollector.
  /// @param mode The mode to run KubeWatt in.
  /// @param dataStorage Configuration of data storage.
+ /// @param sharding Optional; divide the nodes over multiple ESTIMATOR replicas.
+ /// @param exporter Optional; how estimates are exported in ESTIMATOR mode.
+ /// @param server Optional; settings of the HTTP server in ESTIMATOR mode.
  /// @see Mode
 @Slf4j
 public record Config(
         @Valid @NotNull CollectorConfig collector,
         @NotNull Mode mode,
         @Valid @NotNull DataStorageConfig dataStorage,
-        @Valid @NotNull BootstrapInitializerConfig bootstrapInitializer
+        @Valid @NotNull BootstrapInitializerConfig bootstrapInitializer,
+        @Valid @Nullable ShardingConfig sharding,
+        @Valid @Nullable ExporterConfig exporter,
+        @Valid @Nullable ServerConfig server,
+        @Valid @Nullable HistoryConfig history,
+        @Valid @Nullable JfrConfig jfr,
+        @Nullable @Min(1) Integer parallelism
 ) {
     public static Config get() {
         return ConfigHolder.INSTANCE;
     }
 
+    /// The number of threads that per-node work, such as estimation, is divided over.
+    public int parallelismOrDefault() {
+        return parallelism == null ? Runtime.getRuntime().availableProcessors() : parallelism;
+    }
+
+    /// Validates the config. Bootstrapping Hibernate Validator takes a while, so this is not done when the config is
+    /// loaded, but can run on a background thread while the rest of KubeWatt starts. Only the first call validates.
+    /// @throws ConfigValidationException If the config is invalid.
+    public static void validate() {
+        if (!ValidationHolder.VALID) {
+            throw new ConfigValidationException("Config failed validation, see logs for details");
+        }
+    }
+
+    @AssertTrue(message = "sharding can only be enabled when mode is ESTIMATOR")
+    private boolean isShardingOk() {
+        return sharding == null || !sharding.enabled() || mode == Mode.ESTIMATOR;
+    }
+
+    @AssertTrue(message = "history can only be set when mode is ESTIMATOR")
+    private boolean isHistoryOk() {
+        return history == null || mode == Mode.ESTIMATOR;
+    }
+
+    @AssertTrue(message = "collector.discovery can only be enabled when mode is ESTIMATOR")
+    private boolean isDiscoveryOk() {
+        return !collector.isDiscoveryEnabled() || mode == Mode.ESTIMATOR;
+    }
+
     private static class ConfigHolder {
         private static final Config INSTANCE;
 
@@ -41,8 +81,7 @@ public record Config(
             var configPath = System.getenv("KW_CONFIG_PATH");
             try (var stream = configPath == null
                               ? Config.class.getResourceAsStream("/config.json")
-                              : new FileInputStream(configPath);
-                 var validationFactory = Validation.buildDefaultValidatorFactory()) {
+                              : new FileInputStream(configPath)) {
                 if (stream == null) {
                     throw new RuntimeException("Unable to find config.json");
                 }
@@ -50,38 +89,69 @@ public record Config(
                 var objectMapper = new ObjectMapper();
                 objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.KEBAB_CASE);
                 INSTANCE = objectMapper.readValue(new InputStreamReader(stream), Config.class);
+                log.info("Successfully loaded config.");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class ValidationHolder {
+        private static final boolean VALID;
 
+        static {
+            try (var validationFactory = Validation.buildDefaultValidatorFactory()) {
                 var validator = validationFactory.getValidator();
-                var violations = validator.validate(INSTANCE);
-                if (violations.isEmpty()) {
-                    log.info("Successfully loaded config.");
-                } else {
-                    for (var violation : violations) {
-                        log.error(
-                                "Config validation violation: '{}' {}",
-                                violation.getPropertyPath(),
-                                violation.getMessage()
-                        );
-                    }
-                    throw new RuntimeException("Config failed validation, see logs for details");
+                var violations = validator.validate(ConfigHolder.INSTANCE);
+                for (var violation : violations) {
+                    log.error(
+                            "Config validation violation: '{}' {}",
+                            violation.getPropertyPath(),
+                            violation.getMessage()
+                    );
+                }
+                VALID = violations.isEmpty();
+                if (VALID) {
+                    log.info("Successfully validated config.");
                 }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
             }
         }
     }
 
+    /// @param discovery Optional; watch the cluster for nodes instead of using only the fixed `nodeNames`.
     public record CollectorConfig(
-            @NotEmpty List<@NotBlank String> nodeNames,
+            @NotNull List<@NotBlank String> nodeNames,
             @Valid @NotNull PowerConfig power,
             @Valid @NotNull UtilizationConfig utilization,
-            Map<String, Double> nodeStaticPower
+            Map<String, Double> nodeStaticPower,
+            @Valid @Nullable DiscoveryConfig discovery,
+            @Nullable Boolean kubernetesProtobuf,
+            @Nullable @Min(1) Integer kubernetesPageSize
     ) {
+        public boolean isDiscoveryEnabled() {
+            return discovery != null && discovery.enabled();
+        }
+
+        /// Whether pods, namespaces and nodes are read from the Kubernetes API as protobuf rather than JSON.
+        public boolean kubernetesProtobufOrDefault() {
+            return kubernetesProtobuf == null || kubernetesProtobuf;
+        }
+
+        /// The number of objects requested per page when listing pods, namespaces and nodes.
+        public int kubernetesPageSizeOrDefault() {
+            return kubernetesPageSize == null ? 500 : kubernetesPageSize;
+        }
+
+        @AssertTrue(message = "collector.node-names cannot be empty unless collector.discovery is enabled")
+        private boolean isNodeNamesOk() {
+            return !nodeNames.isEmpty() || isDiscoveryEnabled();
+        }
+
         @AssertTrue(message = "collector.node-static-power cannot be null when mode is ESTIMATOR")
         private boolean isStaticPowerPresent() {
             return switch (ConfigHolder.INSTANCE.mode) {
                 case INIT_BASE, INIT_BOOTSTRAP -> true;
-                case ESTIMATOR -> nodeStaticPower != null;
+                case ESTIMATOR -> nodeStaticPower != null || isDiscoveryEnabled();
             };
         }
 
@@ -90,27 +160,62 @@ public record Config(
             return nodeStaticPower == null || nodeStaticPower.keySet().equals(new HashSet<>(nodeNames));
         }
 
+        /// @param redfishTimeoutSeconds The time allowed for each request to a BMC, including connecting. Clients of all nodes are initialized concurrently, each within this time. Defaults to 10.
+        /// @param redfishAdaptivePolling Whether a BMC is not polled while its power reading cannot have been refreshed since the last poll. Reused readings can be late for a change after a steady period, so this defaults to false.
+        /// @param redfishMaxReadingAgeSeconds How long the last reading of a node is used while its BMC fails, in ESTIMATOR mode. Defaults to 60.
+        /// @param rapl The RAPL agents to read power from when source = RAPL.
+        /// @param prometheus The metric to read power from when source = PROMETHEUS.
         public record PowerConfig(
                 @NotNull PowerSource source,
-                Map<@NotBlank String, @Valid RedfishConfig> redfish
+                Map<@NotBlank String, @Valid RedfishConfig> redfish,
+                @Nullable @Min(1) Integer redfishTimeoutSeconds,
+                @Nullable Boolean redfishAdaptivePolling,
+                @Nullable @Min(0) Integer redfishMaxReadingAgeSeconds,
+                @Valid @Nullable RaplConfig rapl,
+                @Valid @Nullable PrometheusConfig prometheus
         ) {
+            public int redfishTimeoutSecondsOrDefault() {
+                return redfishTimeoutSeconds == null ? 10 : redfishTimeoutSeconds;
+            }
+
+            public boolean redfishAdaptivePollingOrDefault() {
+                return redfishAdaptivePolling != null && redfishAdaptivePolling;
+            }
+
+            public int redfishMaxReadingAgeSecondsOrDefault() {
+                return redfishMaxReadingAgeSeconds == null ? 60 : redfishMaxReadingAgeSeconds;
+            }
+
             @AssertTrue(message = "collector.power.redfish cannot be null when source = REDFISH")
             private boolean isOk() {
                 return switch (source) {
-                    case REDFISH -> redfish != null;
+                    case REDFISH -> redfish != null || ConfigHolder.INSTANCE.collector.isDiscoveryEnabled();
+                    case RAPL, PROMETHEUS -> true;
                 };
             }
 
+            @AssertTrue(message = "collector.power.rapl cannot be null when source = RAPL")
+            private boolean isRaplOk() {
+                return source != PowerSource.RAPL || rapl != null;
+            }
+
+            @AssertTrue(message = "collector.power.prometheus cannot be null when source = PROMETHEUS")
+            private boolean isPrometheusOk() {
+                return source != PowerSource.PROMETHEUS || prometheus != null;
+            }
+
             @AssertTrue(message = "collector.power.redfish must contain the same keys as collector.node-names")
             private boolean isRedfishOk() {
-                if (source != PowerSource.REDFISH) {
+                if (source != PowerSource.REDFISH || redfish == null) {
                     return true;
                 }
                 return redfish.keySet().equals(new HashSet<>(ConfigHolder.INSTANCE.collector.nodeNames));
             }
 
             public enum PowerSource {
-                REDFISH
+                REDFISH,
+                RAPL,
+                PROMETHEUS
             }
 
             public record RedfishConfig(
@@ -120,15 +225,136 @@ public record Config(
                     @NotBlank String password
             ) {
             }
+
+            /// @param agentUrl The URL of the RAPL agent of each node; `{node}` is replaced by the node's name.
+            /// @param powercapPath The powercap directory the agent reads. Defaults to `/sys/class/powercap`.
+            /// @param sampleIntervalMillis How often the agent reads the counters. Defaults to 1000.
+            /// @param timeoutMillis The time allowed for each request to an agent. Defaults to 2000.
+            public record RaplConfig(
+                    @NotBlank String agentUrl,
+                    @Nullable String powercapPath,
+                    @Nullable @Min(10) Integer sampleIntervalMillis,
+                    @Nullable @Min(1) Integer timeoutMillis
+            ) {
+                public String powercapPathOrDefault() {
+                    return powercapPath == null ? "/sys/class/powercap" : powercapPath;
+                }
+
+                public int sampleIntervalMillisOrDefault() {
+                    return sampleIntervalMillis == null ? 1000 : sampleIntervalMillis;
+                }
+
+                public int timeoutMillisOrDefault() {
+                    return timeoutMillis == null ? 2000 : timeoutMillis;
+                }
+            }
+
+            /// Power read from a metric of existing exporters, such as ipmi_exporter or an SNMP exporter for PDUs. The samples of a node are summed, e.g. over its power supplies or PDU outlets.
+            /// @param targets Prometheus text-format endpoints to scrape. A target containing `{node}` is scraped once per node and its samples belong to that node; other targets are scraped once and their samples are assigned to nodes by `nodeLabel`.
+            /// @param queryUrl The URL of a Prometheus server to query the metric from instead of scraping targets, e.g. `http://prometheus:9090`. Samples are assigned to nodes by `nodeLabel`.
+            /// @param metric The metric holding power in watts.
+            /// @param matchLabels Optional; only use samples that have all of these labels.
+            /// @param nodeLabel The label that holds the node of a sample. Defaults to `node`.
+            /// @param nodeMap Optional; maps values of `nodeLabel`, such as BMC addresses, to node names. Values not in the map are node names. A `{node}` in `targets` is replaced by the values that map to the node, or by the node name if there are none.
+            /// @param timeoutMillis The time allowed for each request. Defaults to 5000.
+            public record PrometheusConfig(
+                    @Nullable List<@NotBlank String> targets,
+                    @Nullable @URL String queryUrl,
+                    @NotBlank String metric,
+                    @Nullable Map<@NotBlank String, @NotNull String> matchLabels,
+                    @Nullable String nodeLabel,
+                    @Nullable Map<@NotBlank String, @NotBlank String> nodeMap,
+                    @Nullable @Min(1) Integer timeoutMillis
+            ) {
+                public Map<String, String> matchLabelsOrDefault() {
+                    return matchLabels == null ? Map.of() : matchLabels;
+                }
+
+                public String nodeLabelOrDefault() {
+                    return nodeLabel == null ? "node" : nodeLabel;
+                }
+
+                public Map<String, String> nodeMapOrDefault() {
+                    return nodeMap == null ? Map.of() : nodeMap;
+                }
+
+                public int timeoutMillisOrDefault() {
+                    return timeoutMillis == null ? 5000 : timeoutMillis;
+                }
+
+                @AssertTrue(message = "collector.power.prometheus needs either targets or query-url")
+                private boolean isSourceOk() {
+                    return (targets == null || targets.isEmpty()) != (queryUrl == null);
+                }
+            }
         }
 
+        /// @param includeNamespaces Optional; only estimate containers in these namespaces. Applies to ESTIMATOR mode only.
+        /// @param excludeNamespaces Optional; never estimate containers in these namespaces. Applies to ESTIMATOR mode only.
+        /// @param namespaceLabelSelector Optional; only estimate containers in namespaces matching this label selector. Applies to ESTIMATOR mode only.
+        /// @param podLabelSelector Optional; only estimate containers of pods matching this label selector. Applies to ESTIMATOR mode only.
         public record UtilizationConfig(
                 /* A list of control plane pod names (regex) can be provided. KubeWatt will interpret these as pods whose
                  * utilization is part of the empty cluster setup when running in any of the INIT modes.
                  */
-                @NotEmpty List<@NotBlank String> controlPlanePods
+                @NotEmpty List<@NotBlank String> controlPlanePods,
+                @Nullable List<@NotBlank String> includeNamespaces,
+                @Nullable List<@NotBlank String> excludeNamespaces,
+                @Nullable String namespaceLabelSelector,
+                @Nullable String podLabelSelector,
+                @Nullable UtilizationSource source
+        ) {
+            /// Where the CPU usage of containers is read from. Defaults to [UtilizationSource#METRICS_API].
+            public UtilizationSource sourceOrDefault() {
+                return source == null ? UtilizationSource.METRICS_API : source;
+            }
+
+            /// Whether estimates are limited to part of the pods. Only pods in scope are listed and read; the total CPU usage of the other pods is read from the kubelets, as it counts towards the total the dynamic power is divided by.
+            public boolean isScoped() {
+                return includeNamespaces != null
+                        || (excludeNamespaces != null && !excludeNamespaces.isEmpty())
+                        || namespaceLabelSelector != null
+                        || podLabelSelector != null;
+            }
+
+            @AssertTrue(message = "collector.utilization.pod-label-selector must be a valid label selector")
+            private boolean isPodLabelSelectorOk() {
+                try {
+                    return podLabelSelector == null || LabelSelector.parse(podLabelSelector) != null;
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+            }
+
+            public enum UtilizationSource {
+                /// The `metrics.k8s.io` API served by metrics-server
+                METRICS_API,
+                /// The `/metrics/resource` endpoint of each kubelet, read through the API server's node proxy
+                KUBELET
+            }
+        }
+
+        /// Watch the cluster for nodes. Nodes listed in `node-names` use their static config; any other node uses the first template whose `matchLabels` are all present on the node. Nodes without a complete config are skipped.
+        public record DiscoveryConfig(
+                boolean enabled,
+                @NotEmpty List<@Valid @NotNull NodeTemplate> templates
+        ) {
+        }
+
+        /// Config applied to every discovered node whose labels contain all of `matchLabels`. A template without `matchLabels` matches every node. Strings in `redfish` may contain the placeholders `{node}`, `{label:<key>}` and `{annotation:<key>}`, which are replaced by the node's name, label or annotation value.
+        public record NodeTemplate(
+                @Nullable Map<@NotBlank String, @NotNull String> matchLabels,
+                @Nullable Double staticPower,
+                @Valid @Nullable RedfishTemplate redfish
         ) {
+        }
 
+        public record RedfishTemplate(
+                @NotBlank String host,
+                @NotEmpty List<@NotBlank String> systems,
+                @NotBlank String username,
+                @NotBlank String password
+        ) {
         }
     }
 
@@ -155,11 +381,128 @@ public record Config(
             @Min(0) @Max(100) int bucketPercentEnd,
             @Min(0) @Max(100) int bucketSize,
             @Min(0) @Max(1) double minMult,
-            @NotEmpty Map<@NotBlank String, @NotNull Boolean> nodeHasSmt
+            @NotNull Map<@NotBlank String, @NotNull Boolean> nodeHasSmt
     ) {
         @AssertTrue(message = "collector.node-has-smt must contain the same keys as collector.node-names")
         private boolean isSMPTOkay() {
             return nodeHasSmt.keySet().equals(new HashSet<>(ConfigHolder.INSTANCE.collector.nodeNames));
         }
     }
+
+    /// @param aggregation The level at which container power is summed before export. Defaults to CONTAINER.
+    /// @param topK Optional; export only this many series with the highest power per node. The power of all other series of the node is summed into one series of type `other`.
+    /// @param remoteWrite Optional; also push every tick to a Prometheus remote-write endpoint.
+    /// @param quantiles Optional; also export quantiles of every series over rolling windows.
+    public record ExporterConfig(
+            @Nullable AggregationLevel aggregation,
+            @Nullable @Min(1) Integer topK,
+            @Valid @Nullable RemoteWriteConfig remoteWrite,
+            @Valid @Nullable QuantileConfig quantiles
+    ) {
+        public AggregationLevel aggregationOrDefault() {
+            return aggregation == null ? AggregationLevel.CONTAINER : aggregation;
+        }
+    }
+
+    /// @param windowMinutes The lengths of the rolling windows, e.g. `[60, 1440]` for 1h and 24h.
+    /// @param quantiles The quantiles to export for every window, e.g. `[0.5, 0.9, 0.99]`.
+    /// @param relativeAccuracy The maximum relative error of the exported quantiles. Defaults to 0.01.
+    public record QuantileConfig(
+            @NotEmpty List<@NotNull @Min(1) Integer> windowMinutes,
+            @NotEmpty List<@NotNull @DecimalMin("0") @DecimalMax("1") Double> quantiles,
+            @Nullable @DecimalMin(value = "0", inclusive = false) @DecimalMax(value = "1", inclusive = false) Double relativeAccuracy
+    ) {
+        public double relativeAccuracyOrDefault() {
+            return relativeAccuracy == null ? 0.01 : relativeAccuracy;
+        }
+    }
+
+    /// @param url The remote-write endpoint, e.g. `http://prometheus:9090/api/v1/write`.
+    /// @param batchSize The maximum number of series per request. Defaults to 500.
+    /// @param queueCapacity The maximum number of requests waiting to be sent. When full, the oldest request is dropped. Defaults to 100.
+    /// @param timeoutMs The timeout of a single request. Defaults to 10000.
+    /// @param minBackoffMs The delay before the first retry of a failed request; doubled on every next retry. Defaults to 100.
+    /// @param maxBackoffMs The maximum delay between retries. Defaults to 30000.
+    /// @param headers Optional; extra headers sent with every request, e.g. `Authorization` or `X-Scope-OrgID`.
+    public record RemoteWriteConfig(
+            @NotBlank @URL String url,
+            @Nullable @Min(1) Integer batchSize,
+            @Nullable @Min(1) Integer queueCapacity,
+            @Nullable @Min(1) Integer timeoutMs,
+            @Nullable @Min(1) Integer minBackoffMs,
+            @Nullable @Min(1) Integer maxBackoffMs,
+            @Nullable Map<@NotBlank String, @NotNull String> headers
+    ) {
+        public int batchSizeOrDefault() {
+            return batchSize == null ? 500 : batchSize;
+        }
+
+        public int queueCapacityOrDefault() {
+            return queueCapacity == null ? 100 : queueCapacity;
+        }
+
+        public int timeoutMsOrDefault() {
+            return timeoutMs == null ? 10000 : timeoutMs;
+        }
+
+        public int minBackoffMsOrDefault() {
+            return minBackoffMs == null ? 100 : minBackoffMs;
+        }
+
+        public int maxBackoffMsOrDefault() {
+            return maxBackoffMs == null ? 30000 : maxBackoffMs;
+        }
+
+        @AssertTrue(message = "exporter.remote-write.max-backoff-ms must not be less than min-backoff-ms")
+        private boolean isBackoffOk() {
+            return minBackoffMsOrDefault() <= maxBackoffMsOrDefault();
+        }
+    }
+
+    /// @param threads The number of threads serving HTTP requests. Defaults to 5.
+    public record ServerConfig(
+            @Nullable @Min(1) Integer threads
+    ) {
+        public int threadsOrDefault() {
+            return threads == null ? 5 : threads;
+        }
+    }
+
+    /// Keep the power history of this replica in local block files, queryable on `/api/v1/history`.
+    /// @param path The directory of the block files.
+    /// @param retentionHours Blocks older than this are deleted.
+    /// @param blockMinutes The period covered by one block file. Samples of the current period are kept in memory. Defaults to 60.
+    public record HistoryConfig(
+            @NotBlank String path,
+            @Min(1) int retentionHours,
+            @Nullable @Min(1) Integer blockMinutes
+    ) {
+        public int blockMinutesOrDefault() {
+            return blockMinutes == null ? 60 : blockMinutes;
+        }
+    }
+
+    /// Keep a continuous flight recording that can be dumped on `/debug/jfr`.
+    /// @param maxAgeMinutes The age of the oldest events kept in the recording. Defaults to 30.
+    public record JfrConfig(
+            boolean enabled,
+            @Nullable @Min(1) Integer maxAgeMinutes
+    ) {
+        public int maxAgeMinutesOrDefault() {
+            return maxAgeMinutes == null ? 30 : maxAgeMinutes;
+        }
+    }
+
+    /// Divide the configured nodes over multiple ESTIMATOR replicas. Every replica announces itself with a Kubernetes Lease in `namespace`; the nodes are assigned to the live replicas by consistent hashing and rebalanced when replicas come or go.
+    /// @param group Replicas with the same group share the nodes between them.
+    /// @param leaseDurationSeconds A replica that has not renewed its Lease for this long is considered gone. Leases are renewed every third of this duration.
+    /// @param virtualNodes The number of points each replica gets on the hash ring. More points spread the nodes more evenly.
+    public record ShardingConfig(
+            boolean enabled,
+            @NotBlank String namespace,
+            @NotBlank String group,
+            @Min(3) int leaseDurationSeconds,
+            @Min(1) int virtualNodes
+    ) {
+    }
 }
@@ -0,0 +1,229 @@
+package com.bjornp.kubewatt.utils.kubernetes;
+
+import com.bjornp.kubewatt.utils.config.Config;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.kubernetes.client.ProtoClient;
+import io.kubernetes.client.custom.Quantity;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.Configuration;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1OwnerReference;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.proto.Meta;
+import io.kubernetes.client.proto.V1;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/// Lists the pods, namespaces and nodes KubeWatt needs from the core API. Responses are requested as
+/// `application/vnd.kubernetes.protobuf`, which the API server decodes and encodes much cheaper than JSON and which
+/// allocates a fraction of the garbage on large pod lists. Only the fields KubeWatt uses are kept.
+///
+/// Lists are read in pages of `collector.kubernetes-page-size` objects.
+///
+/// When a response cannot be read as protobuf, e.g. because a proxy in front of the API server only speaks JSON, the
+/// call is repeated as JSON. If that succeeds, all further calls use JSON.
+@Slf4j
+public class CoreApiReader {
+    private static volatile boolean protobufSupported = true;
+
+    private final ApiClient client;
+
+    private final CoreV1Api api;
+
+    private final ProtoClient protoClient;
+
+    /// A pod as listed.
+    /// @param nodeName The node the pod is scheduled on, or `null` if it is not scheduled yet.
+    /// @param ownerKind The kind of the pod's controller, or `null` if the pod has no controller.
+    /// @param ownerName The name of the pod's controller, or `null` if the pod has no controller.
+    public record Pod(
+            String namespace,
+            String name,
+            @Nullable String nodeName,
+            Map<String, String> labels,
+            @Nullable String ownerKind,
+            @Nullable String ownerName
+    ) {
+    }
+
+    public record Node(String name, Map<String, Quantity> capacity) {
+    }
+
+    /// One page of a list.
+    /// @param next The continue token of the next page, or `null` if this is the last page.
+    private record Page<T>(List<T> items, @Nullable String next) {
+    }
+
+    @FunctionalInterface
+    private interface PageRead<T> {
+        Page<T> read(@Nullable String continueToken) throws ApiException, IOException;
+    }
+
+    /// Reads through the default API client.
+    public CoreApiReader() {
+        this(Configuration.getDefaultApiClient());
+    }
+
+    public CoreApiReader(ApiClient client) {
+        this.client = client;
+        this.api = new CoreV1Api(client);
+        this.protoClient = new ProtoClient(client);
+    }
+
+    /// Passes every pod to `consumer`, one page at a time, so only a page of pods is in memory at once.
+    /// @param namespace The namespace to list pods from, or `null` for all namespaces.
+    public void forEachPod(@Nullable String namespace, @Nullable String fieldSelector, @Nullable String labelSelector, Consumer<Pod> consumer) throws ApiException {
+        forEach(continueToken -> {
+            var path = namespace == null ? "/api/v1/pods" : "/api/v1/namespaces/%s/pods".formatted(client.escapeString(namespace));
+            V1.PodList list = protoList(V1.PodList.newBuilder(), path, fieldSelector, labelSelector, continueToken);
+            var pods = new ArrayList<Pod>(list.getItemsCount());
+            for (var pod : list.getItemsList()) {
+                var metadata = pod.getMetadata();
+                var controller = metadata.getOwnerReferencesList().stream().filter(ref -> ref.getController()).findFirst();
+                pods.add(new Pod(
+                        metadata.getNamespace(),
+                        metadata.getName(),
+                        pod.getSpec().getNodeName().isEmpty() ? null : pod.getSpec().getNodeName(),
+                        metadata.getLabelsMap(),
+                        controller.map(Meta.OwnerReference::getKind).orElse(null),
+                        controller.map(Meta.OwnerReference::getName).orElse(null)
+                ));
+            }
+            return new Page<>(pods, next(list.getMetadata().getContinue()));
+        }, continueToken -> {
+            var list = namespace == null
+                    ? api.listPodForAllNamespaces().fieldSelector(fieldSelector).labelSelector(labelSelector).limit(pageSize())._continue(continueToken).execute()
+                    : api.listNamespacedPod(namespace).fieldSelector(fieldSelector).labelSelector(labelSelector).limit(pageSize())._continue(continueToken).execute();
+            return new Page<>(list.getItems().stream().map(CoreApiReader::toPod).toList(), next(list.getMetadata().getContinue()));
+        }, consumer);
+    }
+
+    public List<String> listNamespaceNames(@Nullable String fieldSelector, @Nullable String labelSelector) throws ApiException {
+        var names = new ArrayList<String>();
+        forEach(continueToken -> {
+            V1.NamespaceList list = protoList(V1.NamespaceList.newBuilder(), "/api/v1/namespaces", fieldSelector, labelSelector, continueToken);
+            return new Page<>(list.getItemsList().stream().map(namespace -> namespace.getMetadata().getName()).toList(), next(list.getMetadata().getContinue()));
+        }, continueToken -> {
+            var list = api.listNamespace().fieldSelector(fieldSelector).labelSelector(labelSelector).limit(pageSize())._continue(continueToken).execute();
+            return new Page<>(list.getItems().stream().map(namespace -> namespace.getMetadata().getName()).toList(), next(list.getMetadata().getContinue()));
+        }, names::add);
+        return names;
+    }
+
+    public List<Node> listNodes() throws ApiException {
+        var nodes = new ArrayList<Node>();
+        forEach(continueToken -> {
+            V1.NodeList list = protoList(V1.NodeList.newBuilder(), "/api/v1/nodes", null, null, continueToken);
+            var page = new ArrayList<Node>(list.getItemsCount());
+            for (var node : list.getItemsList()) {
+                var capacity = new HashMap<String, Quantity>();
+                node.getStatus().getCapacityMap().forEach((resource, quantity) -> capacity.put(resource, Quantity.fromString(quantity.getString())));
+                page.add(new Node(node.getMetadata().getName(), capacity));
+            }
+            return new Page<>(page, next(list.getMetadata().getContinue()));
+        }, continueToken -> {
+            var list = api.listNode().limit(pageSize())._continue(continueToken).execute();
+            return new Page<>(list.getItems().stream()
+                    .map(node -> new Node(node.getMetadata().getName(), node.getStatus() == null || node.getStatus().getCapacity() == null ? Map.of() : node.getStatus().getCapacity()))
+                    .toList(), next(list.getMetadata().getContinue()));
+        }, nodes::add);
+        return nodes;
+    }
+
+    private <T extends com.google.protobuf.Message> T protoList(com.google.protobuf.Message.Builder builder, String path, @Nullable String fieldSelector, @Nullable String labelSelector, @Nullable String continueToken) throws ApiException, IOException {
+        var query = new ArrayList<String>();
+        if (fieldSelector != null) {
+            query.add("fieldSelector=" + client.escapeString(fieldSelector));
+        }
+        if (labelSelector != null) {
+            query.add("labelSelector=" + client.escapeString(labelSelector));
+        }
+        query.add("limit=" + pageSize());
+        if (continueToken != null) {
+            query.add("continue=" + client.escapeString(continueToken));
+        }
+        ProtoClient.ObjectOrStatus<T> result = protoClient.list(builder, path + "?" + String.join("&", query));
+        if (result.status != null) {
+            throw new ApiException(result.status.getCode(), result.status.getMessage());
+        }
+        return result.object;
+    }
+
+    /// Reads all pages and passes their items to `consumer`. Continue tokens do not depend on the format, so a list
+    /// that falls back to JSON halfway continues where it was. An expired continue token fails the list with a 410; the
+    /// caller lists again on its next collection.
+    private static <T> void forEach(PageRead<T> protobuf, PageRead<T> json, Consumer<T> consumer) throws ApiException {
+        String continueToken = null;
+        do {
+            var page = read(protobuf, json, continueToken);
+            page.items().forEach(consumer);
+            continueToken = page.next();
+        } while (continueToken != null);
+    }
+
+    private static <T> Page<T> read(PageRead<T> protobuf, PageRead<T> json, @Nullable String continueToken) throws ApiException {
+        if (protobufSupported && Config.get().collector().kubernetesProtobufOrDefault()) {
+            try {
+                return protobuf.read(continueToken);
+            } catch (InvalidProtocolBufferException e) {
+                log.debug("Unable to decode protobuf response; retrying as JSON", e);
+            } catch (ApiException e) {
+                // ProtoClient reports a response without the protobuf envelope as an ApiException without a status code
+                if (e.getCode() != 0) {
+                    throw e;
+                }
+                log.debug("Response was not protobuf; retrying as JSON", e);
+            } catch (IOException e) {
+                throw new ApiException(e);
+            }
+
+            var result = unchecked(json, continueToken);
+            // JSON works where protobuf did not, so the API server or a proxy in between does not support protobuf
+            log.warn("Kubernetes API does not answer in protobuf; using JSON from now on");
+            protobufSupported = false;
+            return result;
+        }
+        return unchecked(json, continueToken);
+    }
+
+    private static <T> Page<T> unchecked(PageRead<T> read, @Nullable String continueToken) throws ApiException {
+        try {
+            return read.read(continueToken);
+        } catch (IOException e) {
+            throw new ApiException(e);
+        }
+    }
+
+    private static int pageSize() {
+        return Config.get().collector().kubernetesPageSizeOrDefault();
+    }
+
+    /// The API server sends an empty continue token on the last page.
+    private static @Nullable String next(@Nullable String continueToken) {
+        return continueToken == null || continueToken.isEmpty() ? null : continueToken;
+    }
+
+    private static Pod toPod(V1Pod pod) {
+        var metadata = pod.getMetadata();
+        var controller = Optional.ofNullable(metadata.getOwnerReferences()).orElse(List.of()).stream()
+                .filter(ref -> Boolean.TRUE.equals(ref.getController()))
+                .findFirst();
+        return new Pod(
+                metadata.getNamespace(),
+                metadata.getName(),
+                pod.getSpec() == null ? null : pod.getSpec().getNodeName(),
+                Optional.ofNullable(metadata.getLabels()).orElse(Map.of()),
+                controller.map(V1OwnerReference::getKind).orElse(null),
+                controller.map(V1OwnerReference::getName).orElse(null)
+        );
+    }
+}
@@ -0,0 +1,125 @@
+package com.bjornp.kubewatt.utils.kubernetes;
+
+import com.bjornp.kubewatt.utils.prometheus.ExpositionParser;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.Configuration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// Reads the cumulative CPU usage of containers from a kubelet's `/metrics/resource` endpoint, through the node proxy
+/// of the API server. Unlike the `metrics.k8s.io` API, which only offers a rate over a window chosen by metrics-server,
+/// the kubelet exposes the counter itself together with the time it was read, so the usage between any two reads can
+/// be computed exactly. The counters of whole pods are available as well, for when the containers are not needed.
+public class KubeletResourceReader {
+    private static final String CPU_USAGE = "container_cpu_usage_seconds_total";
+
+    private static final String START_TIME = "container_start_time_seconds";
+
+    private static final String POD_CPU_USAGE = "pod_cpu_usage_seconds_total";
+
+    private final ApiClient client;
+
+    /// The CPU counter of a container as last read by the kubelet.
+    /// @param cpuSeconds The CPU seconds used since the container started.
+    /// @param timestampMillis The time the kubelet read the counter, or -1 if it did not say.
+    /// @param startTimeSeconds The time the container started in seconds since the epoch, or NaN if unknown.
+    public record ContainerCpu(
+            String namespace,
+            String pod,
+            String container,
+            double cpuSeconds,
+            long timestampMillis,
+            double startTimeSeconds
+    ) {
+    }
+
+    /// The CPU counter of a pod as a whole, the sum over its containers.
+    /// @param cpuSeconds The CPU seconds used by the pod's current containers.
+    /// @param timestampMillis The time the kubelet read the counter, or -1 if it did not say.
+    public record PodCpu(String namespace, String pod, double cpuSeconds, long timestampMillis) {
+    }
+
+    /// The counters read from one kubelet. A list that was not asked for is empty.
+    public record Usage(List<ContainerCpu> containers, List<PodCpu> pods) {
+    }
+
+    /// Reads through the default API client.
+    public KubeletResourceReader() {
+        this(Configuration.getDefaultApiClient());
+    }
+
+    public KubeletResourceReader(ApiClient client) {
+        this.client = client;
+    }
+
+    /// Reads the CPU counters of the containers, of the pods, or both, that the kubelet of `node` reports. Lines of
+    /// the metrics that are not asked for are skipped without being decoded. Safe to call for several nodes at once.
+    public Usage read(String node, boolean containers, boolean pods) throws ApiException {
+        if (!containers && !pods) {
+            throw new IllegalArgumentException("Nothing to read");
+        }
+        var request = client.buildRequest(
+                client.getBasePath(),
+                "/api/v1/nodes/%s/proxy/metrics/resource".formatted(client.escapeString(node)),
+                "GET",
+                List.of(),
+                List.of(),
+                null,
+                new HashMap<>(Map.of("Accept", "text/plain;version=0.0.4")),
+                new HashMap<>(),
+                new HashMap<>(),
+                new String[]{"BearerToken"},
+                null
+        );
+        try (var response = client.getHttpClient().newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new ApiException(response.message(), response.code(), response.headers().toMultimap(), response.body() == null ? null : response.body().string());
+            }
+            // The kubelet writes each family as a block, but not in a fixed order, so start times are matched up after
+            // the whole response is read
+            var usages = new ArrayList<ContainerCpu>();
+            var startTimes = new HashMap<String, Double>();
+            var podUsages = new ArrayList<PodCpu>();
+            var parser = containers && pods ? new ExpositionParser(CPU_USAGE, START_TIME, POD_CPU_USAGE)
+                                            : containers ? new ExpositionParser(CPU_USAGE, START_TIME) : new ExpositionParser(POD_CPU_USAGE);
+            var podMetric = containers ? 2 : 0;
+            parser.parse(response.body().byteStream(), (ExpositionParser.MetricVisitor) (metric, labels, value, timestampMillis) -> {
+                var namespace = labels.get("namespace");
+                var pod = labels.get("pod");
+                if (namespace == null || pod == null) {
+                    return;
+                }
+                if (pods && metric == podMetric) {
+                    podUsages.add(new PodCpu(namespace, pod, value, timestampMillis));
+                    return;
+                }
+                var container = labels.get("container");
+                if (container == null) {
+                    return;
+                }
+                if (metric == 0) {
+                    usages.add(new ContainerCpu(namespace, pod, container, value, timestampMillis, Double.NaN));
+                } else {
+                    startTimes.put("%s/%s/%s".formatted(namespace, pod, container), value);
+                }
+            });
+            return new Usage(usages.stream()
+                    .map(usage -> new ContainerCpu(
+                            usage.namespace(),
+                            usage.pod(),
+                            usage.container(),
+                            usage.cpuSeconds(),
+                            usage.timestampMillis(),
+                            startTimes.getOrDefault("%s/%s/%s".formatted(usage.namespace(), usage.pod(), usage.container()), Double.NaN)
+                    ))
+                    .toList(), podUsages);
+        } catch (IOException e) {
+            throw new ApiException(e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.bjornp.kubewatt.utils.kubernetes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/// A parsed Kubernetes label selector, e.g. `app=web,tier!=cache,!canary,env in (prod,staging)`. All requirements must
+/// match. Equality requirements are kept apart so that they can be answered from an index.
+/// @param equals The `key=value` requirements
+/// @param others All other requirements
+public record LabelSelector(
+        Map<String, String> equals,
+        List<Requirement> others
+) {
+    public enum Operator {
+        NOT_EQUALS, EXISTS, NOT_EXISTS, IN, NOT_IN
+    }
+
+    public record Requirement(String key, Operator operator, Set<String> values) {
+        public boolean matches(Map<String, String> labels) {
+            var value = labels.get(key);
+            return switch (operator) {
+                case NOT_EQUALS -> !values.contains(value);
+                case EXISTS -> value != null;
+                case NOT_EXISTS -> value == null;
+                case IN -> value != null && values.contains(value);
+                case NOT_IN -> value == null || !values.contains(value);
+            };
+        }
+    }
+
+    public boolean matches(Map<String, String> labels) {
+        for (var entry : equals.entrySet()) {
+            if (!entry.getValue().equals(labels.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        for (var requirement : others) {
+            if (!requirement.matches(labels)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /// @throws IllegalArgumentException If `selector` is not a valid label selector.
+    public static LabelSelector parse(String selector) {
+        var equals = new HashMap<String, String>();
+        var others = new ArrayList<Requirement>();
+        for (var term : split(selector)) {
+            term = term.strip();
+            if (term.isEmpty()) {
+                continue;
+            }
+            var lower = term.toLowerCase();
+            if (lower.matches("[^\\s=!]+\\s+(notin|in)\\s*\\(.*\\)")) {
+                var key = term.substring(0, term.indexOf(' '));
+                var notIn = lower.substring(key.length()).strip().startsWith("notin");
+                var values = Arrays.stream(term.substring(term.indexOf('(') + 1, term.lastIndexOf(')')).split(","))
+                        .map(String::strip)
+                        .filter(value -> !value.isEmpty())
+                        .collect(Collectors.toSet());
+                others.add(new Requirement(key, notIn ? Operator.NOT_IN : Operator.IN, values));
+            } else if (term.contains("!=")) {
+                var parts = term.split("!=", 2);
+                others.add(new Requirement(key(parts[0]), Operator.NOT_EQUALS, Set.of(parts[1].strip())));
+            } else if (term.contains("=")) {
+                var parts = term.split("==?", 2);
+                equals.put(key(parts[0]), parts[1].strip());
+            } else if (term.startsWith("!")) {
+                others.add(new Requirement(key(term.substring(1)), Operator.NOT_EXISTS, Set.of()));
+            } else {
+                others.add(new Requirement(key(term), Operator.EXISTS, Set.of()));
+            }
+        }
+        return new LabelSelector(equals, others);
+    }
+
+    private static String key(String key) {
+        key = key.strip();
+        if (key.isEmpty() || key.matches(".*[\\s=!(),].*")) {
+            throw new IllegalArgumentException("Invalid label key '%s'".formatted(key));
+        }
+        return key;
+    }
+
+    /// Splits on the commas that are not inside parentheses.
+    private static List<String> split(String selector) {
+        var terms = new ArrayList<String>();
+        var depth = 0;
+        var start = 0;
+        for (var i = 0; i < selector.length(); i++) {
+            switch (selector.charAt(i)) {
+                case '(' -> depth++;
+                case ')' -> depth--;
+                case ',' -> {
+                    if (depth == 0) {
+                        terms.add(selector.substring(start, i));
+                        start = i + 1;
+                    }
+                }
+                default -> {
+                }
+            }
+            if (depth < 0) {
+                throw new IllegalArgumentException("Unbalanced parentheses in '%s'".formatted(selector));
+            }
+        }
+        if (depth != 0) {
+            throw new IllegalArgumentException("Unbalanced parentheses in '%s'".formatted(selector));
+        }
+        terms.add(selector.substring(start));
+        return terms;
+    }
+}
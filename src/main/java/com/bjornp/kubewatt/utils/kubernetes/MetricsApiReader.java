@@ -0,0 +1,209 @@
+package com.bjornp.kubewatt.utils.kubernetes;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.Configuration;
+import io.kubernetes.client.openapi.Pair;
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// Reads CPU usage from the `metrics.k8s.io` API. Responses are decoded while they stream in and each CPU quantity is
+/// parsed straight to a double, so no `PodMetricsList` or `Quantity` objects are created and the memory needed does not
+/// grow with the size of the response. Everything but the names and CPU usage is skipped.
+public class MetricsApiReader {
+    private static final String PATH = "/apis/metrics.k8s.io/v1beta1";
+
+    private final ApiClient client;
+
+    @FunctionalInterface
+    public interface ContainerVisitor {
+        /// @param cpu The CPU usage in cores.
+        void accept(String namespace, String pod, String container, double cpu);
+    }
+
+    @FunctionalInterface
+    public interface NodeVisitor {
+        /// @param cpu The CPU usage in cores.
+        void accept(String node, double cpu);
+    }
+
+    /// Reads through the default API client.
+    public MetricsApiReader() {
+        this(Configuration.getDefaultApiClient());
+    }
+
+    public MetricsApiReader(ApiClient client) {
+        this.client = client;
+    }
+
+    /// Calls `visitor` for every container of every pod in `namespace` that has metrics.
+    public void forEachContainer(String namespace, @Nullable String labelSelector, ContainerVisitor visitor) throws ApiException {
+        var query = labelSelector == null ? List.<Pair>of() : List.of(new Pair("labelSelector", labelSelector));
+        get("%s/namespaces/%s/pods".formatted(PATH, client.escapeString(namespace)), query, reader -> {
+            // The API server writes the metadata of a pod before its containers, so containers are normally passed on
+            // as they are read. The order of fields is not guaranteed though; containers read before the metadata are
+            // kept until it arrives. The lists are reused for every pod.
+            var containers = new ArrayList<String>();
+            var cpus = new ArrayList<Double>();
+            readItems(reader, () -> {
+                String podNamespace = namespace;
+                String pod = null;
+                containers.clear();
+                cpus.clear();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "metadata" -> {
+                            var metadata = readMetadata(reader);
+                            podNamespace = metadata[0] == null ? namespace : metadata[0];
+                            pod = metadata[1];
+                        }
+                        case "containers" -> {
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                String container = null;
+                                var cpu = Double.NaN;
+                                reader.beginObject();
+                                while (reader.hasNext()) {
+                                    switch (reader.nextName()) {
+                                        case "name" -> container = reader.nextString();
+                                        case "usage" -> cpu = readCpu(reader);
+                                        default -> reader.skipValue();
+                                    }
+                                }
+                                reader.endObject();
+                                if (container == null || Double.isNaN(cpu)) {
+                                    continue;
+                                }
+                                if (pod != null) {
+                                    visitor.accept(podNamespace, pod, container, cpu);
+                                } else {
+                                    containers.add(container);
+                                    cpus.add(cpu);
+                                }
+                            }
+                            reader.endArray();
+                        }
+                        default -> reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (pod != null) {
+                    for (int i = 0; i < containers.size(); ++i) {
+                        visitor.accept(podNamespace, pod, containers.get(i), cpus.get(i));
+                    }
+                }
+            });
+        });
+    }
+
+    /// Calls `visitor` for every node that has metrics.
+    public void forEachNode(NodeVisitor visitor) throws ApiException {
+        get(PATH + "/nodes", List.of(), reader -> readItems(reader, () -> {
+            String node = null;
+            var cpu = Double.NaN;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "metadata" -> node = readMetadata(reader)[1];
+                    case "usage" -> cpu = readCpu(reader);
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (node != null && !Double.isNaN(cpu)) {
+                visitor.accept(node, cpu);
+            }
+        }));
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        void read(JsonReader reader) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Item {
+        void read() throws IOException;
+    }
+
+    private void get(String path, List<Pair> query, Body body) throws ApiException {
+        var request = client.buildRequest(
+                client.getBasePath(),
+                path,
+                "GET",
+                query,
+                List.of(),
+                null,
+                new HashMap<>(Map.of("Accept", "application/json")),
+                new HashMap<>(),
+                new HashMap<>(),
+                new String[]{"BearerToken"},
+                null
+        );
+        try (var response = client.getHttpClient().newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new ApiException(response.message(), response.code(), response.headers().toMultimap(), response.body() == null ? null : response.body().string());
+            }
+            try (var reader = new JsonReader(response.body().charStream())) {
+                body.read(reader);
+            }
+        } catch (IOException e) {
+            throw new ApiException(e);
+        }
+    }
+
+    /// Calls `item` with the reader positioned at each element of the top-level `items` array.
+    private static void readItems(JsonReader reader, Item item) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("items") || reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                item.read();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    /// @return The namespace and name.
+    private static String[] readMetadata(JsonReader reader) throws IOException {
+        var result = new String[2];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "namespace" -> result[0] = reader.nextString();
+                case "name" -> result[1] = reader.nextString();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return result;
+    }
+
+    /// @return The `cpu` of a usage object, or NaN if it has none.
+    private static double readCpu(JsonReader reader) throws IOException {
+        var cpu = Double.NaN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("cpu")) {
+                cpu = Quantities.parse(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return cpu;
+    }
+}
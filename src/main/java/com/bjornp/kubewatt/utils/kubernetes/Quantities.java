@@ -0,0 +1,77 @@
+package com.bjornp.kubewatt.utils.kubernetes;
+
+import lombok.experimental.UtilityClass;
+
+/// Parses Kubernetes quantities such as `250m`, `1234567n`, `2` or `1.5Gi` straight to a double, without the
+/// [io.kubernetes.client.custom.Quantity] and [java.math.BigDecimal] that client-java creates for each of them. CPU
+/// usage is far below the range where a double loses precision that matters.
+@UtilityClass
+public class Quantities {
+    /// @throws NumberFormatException if `quantity` is not a valid quantity.
+    public static double parse(CharSequence quantity) {
+        var length = quantity.length();
+        var i = 0;
+        var negative = false;
+        if (i < length && (quantity.charAt(i) == '+' || quantity.charAt(i) == '-')) {
+            negative = quantity.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        var scale = 0;
+        var digits = 0;
+        var fraction = false;
+        for (; i < length; i++) {
+            var c = quantity.charAt(i);
+            if (c == '.' && !fraction) {
+                fraction = true;
+            } else if (c >= '0' && c <= '9') {
+                // digits beyond what a long holds do not change the double anyway
+                if (mantissa < Long.MAX_VALUE / 10 - 9) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (fraction) {
+                        scale--;
+                    }
+                } else if (!fraction) {
+                    scale++;
+                }
+                digits++;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Invalid quantity: " + quantity);
+        }
+
+        var value = (double) mantissa;
+        var exponent = scale;
+        var suffix = quantity.subSequence(i, length).toString();
+        if ((suffix.startsWith("e") || suffix.startsWith("E")) && suffix.length() > 1) {
+            // decimal exponent, e.g. 1e3; a lone E is the exa suffix
+            exponent += Integer.parseInt(suffix, 1, suffix.length(), 10);
+        } else {
+            switch (suffix) {
+                case "" -> {}
+                case "n" -> exponent -= 9;
+                case "u" -> exponent -= 6;
+                case "m" -> exponent -= 3;
+                case "k" -> exponent += 3;
+                case "M" -> exponent += 6;
+                case "G" -> exponent += 9;
+                case "T" -> exponent += 12;
+                case "P" -> exponent += 15;
+                case "E" -> exponent += 18;
+                case "Ki" -> value = Math.scalb(value, 10);
+                case "Mi" -> value = Math.scalb(value, 20);
+                case "Gi" -> value = Math.scalb(value, 30);
+                case "Ti" -> value = Math.scalb(value, 40);
+                case "Pi" -> value = Math.scalb(value, 50);
+                case "Ei" -> value = Math.scalb(value, 60);
+                default -> throw new NumberFormatException("Invalid quantity suffix: " + quantity);
+            }
+        }
+        value = exponent < 0 ? value / Math.pow(10, -exponent) : value * Math.pow(10, exponent);
+        return negative ? -value : value;
+    }
+}
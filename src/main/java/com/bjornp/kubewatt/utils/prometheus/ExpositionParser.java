@@ -0,0 +1,208 @@
+package com.bjornp.kubewatt.utils.prometheus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/// Reads the samples of a few metrics from the Prometheus text exposition format. Exporters such as ipmi_exporter,
+/// snmp_exporter and the kubelet expose many metric families of which only one or two are needed, so the stream is
+/// scanned byte by byte and a line is only copied once its name turned out to be one of the metrics; every other line,
+/// including comments, is skipped without allocating anything. The buffers are reused, so a parser must not be used
+/// by more than one thread at a time.
+public class ExpositionParser {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final byte[][] names;
+
+    /// A bit for every metric
+    private final long allMetrics;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /// The part of a matching line after the metric name
+    private byte[] line = new byte[256];
+
+    @FunctionalInterface
+    public interface MetricVisitor {
+        /// @param metric The index of the sample's metric in the metrics of the parser.
+        /// @param timestampMillis The timestamp of the sample, or -1 if it has none.
+        void accept(int metric, Map<String, String> labels, double value, long timestampMillis);
+    }
+
+    /// @param metrics At most 64 metric names.
+    public ExpositionParser(String... metrics) {
+        if (metrics.length == 0 || metrics.length > Long.SIZE) {
+            throw new IllegalArgumentException("Between 1 and 64 metrics can be read at once");
+        }
+        this.names = new byte[metrics.length][];
+        for (int i = 0; i < metrics.length; ++i) {
+            names[i] = metrics[i].getBytes(StandardCharsets.UTF_8);
+        }
+        this.allMetrics = metrics.length == Long.SIZE ? -1L : (1L << metrics.length) - 1;
+    }
+
+    /// Passes every sample of the metrics in `in` to `visitor`, ignoring which metric it belongs to. Samples that are
+    /// not a number are skipped.
+    /// @throws IOException if `in` cannot be read or a sample of the metrics is malformed.
+    public void parse(InputStream in, SampleVisitor visitor) throws IOException {
+        parse(in, (MetricVisitor) (metric, labels, value, timestampMillis) -> visitor.accept(labels, value));
+    }
+
+    /// Passes every sample of the metrics in `in` to `visitor`. Samples that are not a number are skipped.
+    /// @throws IOException if `in` cannot be read or a sample of the metrics is malformed.
+    public void parse(InputStream in, MetricVisitor visitor) throws IOException {
+        // the metrics whose name the current line may still have, and how many bytes of the line matched them
+        var candidates = allMetrics;
+        var matched = 0;
+        // the metric whose name matched while the rest of the line is being copied, or -1
+        var metric = -1;
+        var lineLength = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; ++i) {
+                var b = buffer[i];
+                if (b == '\n') {
+                    if (metric >= 0) {
+                        parseSample(metric, lineLength, visitor);
+                    }
+                    candidates = allMetrics;
+                    matched = 0;
+                    metric = -1;
+                    continue;
+                }
+                if (metric >= 0) {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                } else if (candidates != 0) {
+                    var remaining = 0L;
+                    for (var left = candidates; left != 0; left &= left - 1) {
+                        var candidate = Long.numberOfTrailingZeros(left);
+                        var name = names[candidate];
+                        if (matched < name.length) {
+                            if (b == name[matched]) {
+                                remaining |= 1L << candidate;
+                            }
+                        } else if (b == '{' || b == ' ' || b == '\t') {
+                            metric = candidate;
+                        }
+                        // otherwise a longer name that starts with the candidate's name
+                    }
+                    if (metric >= 0) {
+                        line[0] = b;
+                        lineLength = 1;
+                    }
+                    candidates = remaining;
+                    matched++;
+                }
+            }
+        }
+        if (metric >= 0) {
+            parseSample(metric, lineLength, visitor);
+        }
+    }
+
+    /// Parses `{labels} value [timestamp]` from the first `length` bytes of [#line].
+    private void parseSample(int metric, int length, MetricVisitor visitor) throws IOException {
+        var labels = new HashMap<String, String>();
+        var i = skipSpaces(0, length);
+        if (i < length && line[i] == '{') {
+            i = parseLabels(metric, i + 1, length, labels);
+        }
+        i = skipSpaces(i, length);
+        var start = i;
+        while (i < length && line[i] != ' ' && line[i] != '\t' && line[i] != '\r') {
+            i++;
+        }
+        if (start == i) {
+            throw malformed(metric, length);
+        }
+        var token = new String(line, start, i - start, StandardCharsets.US_ASCII);
+        double value;
+        try {
+            // Java spells infinity differently
+            value = token.endsWith("Inf") ? Double.parseDouble(token + "inity") : Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw malformed(metric, length);
+        }
+
+        i = skipSpaces(i, length);
+        var timestamp = -1L;
+        if (i < length && line[i] != '\r') {
+            start = i;
+            while (i < length && line[i] != ' ' && line[i] != '\t' && line[i] != '\r') {
+                i++;
+            }
+            try {
+                timestamp = Long.parseLong(new String(line, start, i - start, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw malformed(metric, length);
+            }
+        }
+        if (!Double.isNaN(value)) {
+            visitor.accept(metric, labels, value, timestamp);
+        }
+    }
+
+    /// Parses `name="value",...}` starting at `i`. Escapes in values are resolved in place, which never makes them
+    /// longer.
+    /// @return The position after the closing brace.
+    private int parseLabels(int metric, int i, int length, Map<String, String> labels) throws IOException {
+        while (true) {
+            i = skipSpaces(i, length);
+            if (i < length && line[i] == '}') {
+                return i + 1;
+            }
+            var nameStart = i;
+            while (i < length && line[i] != '=' && line[i] != ' ') {
+                i++;
+            }
+            var nameEnd = i;
+            i = skipSpaces(i, length);
+            if (i >= length || line[i] != '=') {
+                throw malformed(metric, length);
+            }
+            i = skipSpaces(i + 1, length);
+            if (i >= length || line[i] != '"') {
+                throw malformed(metric, length);
+            }
+            var valueStart = ++i;
+            var end = i;
+            while (i < length && line[i] != '"') {
+                if (line[i] == '\\' && i + 1 < length) {
+                    i++;
+                    line[end++] = line[i] == 'n' ? (byte) '\n' : line[i];
+                } else {
+                    line[end++] = line[i];
+                }
+                i++;
+            }
+            if (i >= length) {
+                throw malformed(metric, length);
+            }
+            labels.put(
+                    new String(line, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8),
+                    new String(line, valueStart, end - valueStart, StandardCharsets.UTF_8)
+            );
+            i = skipSpaces(i + 1, length);
+            if (i < length && line[i] == ',') {
+                i++;
+            }
+        }
+    }
+
+    private int skipSpaces(int i, int length) {
+        while (i < length && (line[i] == ' ' || line[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private IOException malformed(int metric, int length) {
+        return new IOException("Malformed sample: " + new String(names[metric], StandardCharsets.UTF_8) + new String(line, 0, length, StandardCharsets.UTF_8));
+    }
+}
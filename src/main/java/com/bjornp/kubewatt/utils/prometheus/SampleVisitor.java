@@ -0,0 +1,9 @@
+package com.bjornp.kubewatt.utils.prometheus;
+
+import java.util.Map;
+
+/// Receives the samples of the metric being read.
+@FunctionalInterface
+public interface SampleVisitor {
+    void accept(Map<String, String> labels, double value);
+}
@@ -0,0 +1,153 @@
+package com.bjornp.kubewatt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/// Smoke test of a KubeWatt build. Serves stubs of the Kubernetes and Redfish APIs for a single node with one pod,
+/// starts KubeWatt in ESTIMATOR mode against them and waits until `/metrics` reports power for the pod's container.
+///
+/// The system property `kubewatt.smoke.command` is the command that starts KubeWatt, split on spaces, e.g.
+/// `build/native/nativeCompile/kubewatt`. It defaults to running the shadow jar with the JVM of the test.
+class SmokeTest {
+    private static final Map<String, String> RESPONSES = Map.of(
+            "/api/v1/namespaces", """
+                    {"kind":"NamespaceList","apiVersion":"v1","metadata":{},"items":[{"metadata":{"name":"default"}}]}""",
+            "/api/v1/pods", """
+                    {"kind":"PodList","apiVersion":"v1","metadata":{},"items":[{"metadata":{"name":"web-1","namespace":"default",
+                    "labels":{"app":"web"}},"spec":{"nodeName":"smoke-node","containers":[{"name":"web"}]}}]}""",
+            "/apis/metrics.k8s.io/v1beta1/namespaces/default/pods", """
+                    {"kind":"PodMetricsList","apiVersion":"metrics.k8s.io/v1beta1","metadata":{},"items":[{"metadata":
+                    {"name":"web-1","namespace":"default"},"timestamp":"2024-01-01T00:00:00Z","window":"15s",
+                    "containers":[{"name":"web","usage":{"cpu":"500m","memory":"10Mi"}}]}]}""",
+            "/redfish/v1/Systems", """
+                    {"Members":[{"@odata.id":"/redfish/v1/Systems/System.Embedded.1"}]}""",
+            "/redfish/v1/Chassis/System.Embedded.1/Power/PowerControl", """
+                    {"PowerConsumedWatts":250}"""
+    );
+
+    private static final List<String> EXPECTED = List.of(
+            "kubewatt_container_power_watts{container=\"web\",namespace=\"default\",node=\"smoke-node\",pod=\"web-1\",type=\"dynamic\"} 150.0",
+            "kubewatt_container_power_watts{container=\"\",namespace=\"\",node=\"smoke-node\",pod=\"\",type=\"static\"} 100.0"
+    );
+
+    @Test
+    void exportsPowerAfterOneTick(@TempDir Path directory) throws Exception {
+        var stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/", SmokeTest::respond);
+        stub.start();
+        var stubUrl = "http://127.0.0.1:" + stub.getAddress().getPort();
+
+        var kubeconfig = directory.resolve("kubeconfig");
+        Files.writeString(kubeconfig, """
+                apiVersion: v1
+                kind: Config
+                clusters:
+                  - name: stub
+                    cluster:
+                      server: %s
+                contexts:
+                  - name: stub
+                    context:
+                      cluster: stub
+                      user: stub
+                current-context: stub
+                users:
+                  - name: stub
+                    user:
+                      token: stub
+                """.formatted(stubUrl));
+        var config = directory.resolve("config.json");
+        Files.writeString(config, """
+                {
+                  "mode": "ESTIMATOR",
+                  "data-storage": {"mode": "NONE"},
+                  "collector": {
+                    "node-names": ["smoke-node"],
+                    "node-static-power": {"smoke-node": 100.0},
+                    "power": {
+                      "source": "REDFISH",
+                      "redfish": {
+                        "smoke-node": {"host": "%s", "systems": ["System.Embedded.1"], "username": "smoke", "password": "smoke"}
+                      }
+                    },
+                    "utilization": {"control-plane-pods": ["kube-.*"]}
+                  },
+                  "bootstrap-initializer": {
+                    "bucket-percent-start": 20, "bucket-percent-end": 80, "bucket-size": 10, "min-mult": 0.5,
+                    "node-has-smt": {"smoke-node": false}
+                  }
+                }
+                """.formatted(stubUrl));
+
+        var log = directory.resolve("kubewatt.log");
+        var process = new ProcessBuilder(command())
+                .redirectOutput(log.toFile())
+                .redirectErrorStream(true);
+        process.environment().putAll(Map.of(
+                "KUBECONFIG", kubeconfig.toString(),
+                "KW_CONFIG_PATH", config.toString(),
+                "KW_LOG_LEVEL", "INFO"
+        ));
+        var kubewatt = process.start();
+
+        var success = false;
+        try {
+            var client = HttpClient.newHttpClient();
+            for (var attempt = 0; attempt < 60 && !success && kubewatt.isAlive(); attempt++) {
+                Thread.sleep(500);
+                try {
+                    var body = client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:9400/metrics")).build(), HttpResponse.BodyHandlers.ofString()).body();
+                    success = EXPECTED.stream().allMatch(body::contains);
+                } catch (IOException e) {
+                    // not listening yet
+                }
+            }
+        } finally {
+            kubewatt.destroy();
+            kubewatt.waitFor();
+            stub.stop(0);
+        }
+
+        assertTrue(success, "KubeWatt output:\n" + Files.readString(log));
+    }
+
+    private static List<String> command() {
+        var command = System.getProperty("kubewatt.smoke.command");
+        if (command == null || command.isBlank()) {
+            var java = Path.of(System.getProperty("java.home"), "bin", "java");
+            return List.of(java.toString(), "-jar", Path.of("build", "libs", "kubewatt.jar").toAbsolutePath().toString());
+        }
+        return Arrays.asList(command.trim().split(" +"));
+    }
+
+    private static void respond(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var body = RESPONSES.get(exchange.getRequestURI().getPath());
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            var bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+}
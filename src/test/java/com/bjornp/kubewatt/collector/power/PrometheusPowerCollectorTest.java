@@ -0,0 +1,111 @@
+package com.bjornp.kubewatt.collector.power;
+
+import com.bjornp.kubewatt.utils.config.Config.CollectorConfig.PowerConfig.PrometheusConfig;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/// Scrapes a stub exporter that serves the text exposition format per target, like ipmi_exporter.
+class PrometheusPowerCollectorTest {
+    private static final String METRIC = "ipmi_dcmi_power_consumption_watts";
+
+    /// The exposition served for each `target` query parameter; other targets get a 500
+    private final Map<String, String> expositions = new ConcurrentHashMap<>();
+
+    private final List<String> requestedTargets = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+
+    @BeforeEach
+    void startExporter() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ipmi", exchange -> {
+            try (exchange) {
+                var target = exchange.getRequestURI().getQuery().replaceFirst("^target=", "");
+                requestedTargets.add(target);
+                var exposition = expositions.get(target);
+                if (exposition == null) {
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+                var body = exposition.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopExporter() {
+        server.stop(0);
+    }
+
+    @Test
+    void scrapesTheMappedBmcOfEachNodeAndSumsItsSamples() {
+        expositions.put("10.0.0.1", """
+                # HELP ipmi_up '1' if a scrape of the IPMI device was successful, '0' otherwise.
+                # TYPE ipmi_up gauge
+                ipmi_up{collector="dcmi"} 1
+                # HELP ipmi_dcmi_power_consumption_watts Current power consumption in Watts.
+                # TYPE ipmi_dcmi_power_consumption_watts gauge
+                ipmi_dcmi_power_consumption_watts{psu="1"} 120.5 1700000000000
+                ipmi_dcmi_power_consumption_watts{psu="2"} 99.5
+                ipmi_dcmi_power_consumption_watts_max 400
+                """);
+        expositions.put("10.0.0.2", """
+                ipmi_dcmi_power_consumption_watts 180
+                """);
+        expositions.put("node-3", """
+                ipmi_dcmi_power_consumption_watts 75
+                """);
+        var collector = collector(Map.of("10.0.0.1", "node-1", "10.0.0.2", "node-2"));
+
+        var power = collector.getPowerWatts(List.of("node-1", "node-2", "node-3"));
+
+        assertEquals(Map.of("node-1", 220.0, "node-2", 180.0, "node-3", 75.0), power);
+        // the BMC addresses are scraped rather than the node names; a node without one is scraped by name
+        assertEquals(List.of("10.0.0.1", "10.0.0.2", "node-3"), requestedTargets.stream().sorted().toList());
+    }
+
+    @Test
+    void failingTargetIsBackedOffWithoutAffectingOtherNodes() {
+        expositions.put("10.0.0.1", METRIC + " 200\n");
+        var collector = collector(Map.of("10.0.0.1", "node-1", "10.0.0.2", "node-2"));
+
+        assertEquals(Map.of("node-1", 200.0), collector.getPowerWatts(List.of("node-1", "node-2")));
+        assertEquals(Map.of("node-1", 200.0), collector.getPowerWatts(List.of("node-1", "node-2")));
+        // the failing BMC was asked once, then left alone for its backoff
+        assertEquals(1, requestedTargets.stream().filter("10.0.0.2"::equals).count());
+        assertEquals(2, requestedTargets.stream().filter("10.0.0.1"::equals).count());
+    }
+
+    @Test
+    void failingTargetFailsTheCollectionOutsideEstimatorMode() {
+        var collector = new PrometheusPowerCollector(config(Map.of()), false);
+
+        assertThrows(RuntimeException.class, () -> collector.getPowerWatts(List.of("node-1")));
+    }
+
+    private PrometheusPowerCollector collector(Map<String, String> nodeMap) {
+        return new PrometheusPowerCollector(config(nodeMap), true);
+    }
+
+    private PrometheusConfig config(Map<String, String> nodeMap) {
+        var target = "http://localhost:%d/ipmi?target={node}".formatted(server.getAddress().getPort());
+        return new PrometheusConfig(List.of(target), null, METRIC, null, null, nodeMap, 2000);
+    }
+}
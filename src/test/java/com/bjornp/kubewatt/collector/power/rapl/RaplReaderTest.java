@@ -0,0 +1,124 @@
+package com.bjornp.kubewatt.collector.power.rapl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/// Reads a fake powercap tree laid out like `/sys/class/powercap` on a two-socket server.
+class RaplReaderTest {
+    private static final long MAX_RANGE = 262_143_328_850L;
+
+    @TempDir
+    private Path powercap;
+
+    @Test
+    void packagesAreSummedWithTheirDram() throws IOException {
+        twoSockets();
+        var reader = new RaplReader(powercap);
+        assertEquals(0, reader.read());
+
+        // 10 J per package, 2 J of DRAM and 7 J of cores, which are already part of package 0
+        add("intel-rapl:0", 10_000_000);
+        add("intel-rapl:0:0", 7_000_000);
+        add("intel-rapl:0:1", 2_000_000);
+        add("intel-rapl:1", 10_000_000);
+
+        assertEquals(22, reader.read(), 1e-9);
+    }
+
+    @Test
+    void psysIsUsedOnItsOwn() throws IOException {
+        twoSockets();
+        zone("intel-rapl:2", "psys", 500_000_000);
+        var reader = new RaplReader(powercap);
+        reader.read();
+
+        add("intel-rapl:0", 10_000_000);
+        add("intel-rapl:0:1", 2_000_000);
+        add("intel-rapl:1", 10_000_000);
+        add("intel-rapl:2", 40_000_000);
+
+        assertEquals(40, reader.read(), 1e-9);
+    }
+
+    @Test
+    void mmioZonesAreSkipped() throws IOException {
+        zone("intel-rapl-mmio:0", "package-0", 0);
+        assertThrows(IOException.class, () -> new RaplReader(powercap));
+
+        zone("intel-rapl:0", "package-0", 0);
+        var reader = new RaplReader(powercap);
+        reader.read();
+
+        add("intel-rapl:0", 5_000_000);
+        add("intel-rapl-mmio:0", 5_000_000);
+
+        assertEquals(5, reader.read(), 1e-9);
+    }
+
+    @Test
+    void counterWrapsAtItsMaximumRange() throws IOException {
+        zone("intel-rapl:0", "package-0", MAX_RANGE - 3_000_000);
+        var reader = new RaplReader(powercap);
+        reader.read();
+
+        write("intel-rapl:0", 1_000_000);
+        assertEquals(4, reader.read(), 1e-9);
+
+        add("intel-rapl:0", 6_000_000);
+        assertEquals(10, reader.read(), 1e-9);
+    }
+
+    @Test
+    void wattsAreAveragedOverTheSampleInterval() throws IOException {
+        twoSockets();
+        var agent = new RaplAgent(new RaplReader(powercap));
+        agent.sample(1);
+        assertTrue(agent.latest().isEmpty(), "the first read is only a baseline");
+
+        // 150 W per package and 20 W of DRAM for half a second
+        add("intel-rapl:0", 75_000_000);
+        add("intel-rapl:0:1", 10_000_000);
+        add("intel-rapl:1", 75_000_000);
+        agent.sample(1.5);
+
+        var sample = agent.latest().orElseThrow();
+        assertEquals(160, sample.energyJoules(), 1e-9);
+        assertEquals(1.5, sample.seconds());
+        assertEquals(320, sample.watts(), 1e-6);
+    }
+
+    /// Two packages, each with a core and a DRAM subzone, and the MMIO view of package 0.
+    private void twoSockets() throws IOException {
+        zone("intel-rapl:0", "package-0", 1_000_000_000);
+        zone("intel-rapl:0:0", "core", 1_000_000_000);
+        zone("intel-rapl:0:1", "dram", 1_000_000_000);
+        zone("intel-rapl:1", "package-1", 1_000_000_000);
+        zone("intel-rapl:1:0", "core", 1_000_000_000);
+        zone("intel-rapl:1:1", "dram", 1_000_000_000);
+        zone("intel-rapl-mmio:0", "package-0", 1_000_000_000);
+    }
+
+    private void zone(String zone, String name, long energy) throws IOException {
+        var directory = Files.createDirectory(powercap.resolve(zone));
+        Files.writeString(directory.resolve("name"), name + "\n");
+        Files.writeString(directory.resolve("max_energy_range_uj"), MAX_RANGE + "\n");
+        write(zone, energy);
+    }
+
+    private void add(String zone, long microJoules) throws IOException {
+        var file = powercap.resolve(zone).resolve("energy_uj");
+        write(zone, Long.parseLong(Files.readString(file).trim()) + microJoules);
+    }
+
+    private void write(String zone, long energy) throws IOException {
+        Files.writeString(powercap.resolve(zone).resolve("energy_uj"), energy + "\n");
+    }
+}
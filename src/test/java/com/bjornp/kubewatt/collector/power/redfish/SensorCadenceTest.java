@@ -0,0 +1,94 @@
+package com.bjornp.kubewatt.collector.power.redfish;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.function.LongToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/// Polls simulated sensors every tick and checks which polls are skipped.
+class SensorCadenceTest {
+    private static final long TICK_NANOS = Duration.ofSeconds(15).toNanos();
+
+    private static final long POLL_NANOS = Duration.ofMillis(200).toNanos();
+
+    private static final int TICKS = 200;
+
+    /// The outcome of polling a sensor for [#TICKS] ticks
+    private record Result(int polls, int maxSkippedInARow, int maxStaleTicks) {
+    }
+
+    @Test
+    void constantReadingOfAFastSensorIsNotSkippedForLong() {
+        // refreshes every second, but the load only changes every 90 seconds until it settles for good
+        var result = poll(nanos -> {
+            var seconds = nanos / 1_000_000_000L;
+            return seconds < 900 ? 100 + (int) (seconds / 90) % 2 : 150;
+        });
+
+        assertTrue(result.polls() < TICKS, "some polls were skipped");
+        assertTrue(result.maxSkippedInARow() <= SensorCadence.MAX_SKIPPED_POLLS, "skipped " + result.maxSkippedInARow() + " in a row");
+        assertTrue(result.maxStaleTicks() <= SensorCadence.MAX_SKIPPED_POLLS, "stale for " + result.maxStaleTicks() + " ticks");
+    }
+
+    @Test
+    void sensorThatChangesEveryTickIsAlwaysPolled() {
+        var result = poll(nanos -> (int) (nanos / 1_000_000_000L));
+
+        assertEquals(TICKS, result.polls());
+        assertEquals(0, result.maxStaleTicks());
+    }
+
+    @Test
+    void slowSensorIsSkippedWithoutGoingStale() {
+        // refreshes every minute with a new value each time
+        var result = poll(nanos -> (int) (nanos / Duration.ofMinutes(1).toNanos()));
+
+        assertTrue(result.polls() < TICKS * 4 / 5, result.polls() + " polls");
+        // a minute is four ticks, so skipping until the next refresh would be stale for at most one tick
+        assertTrue(result.maxStaleTicks() <= 1, "stale for " + result.maxStaleTicks() + " ticks");
+    }
+
+    @Test
+    void readingIsNotReusedOnceItIsTooOld() {
+        // refreshes every two minutes, polled every 20 seconds
+        var tickNanos = Duration.ofSeconds(20).toNanos();
+        var result = poll(nanos -> (int) (nanos / Duration.ofMinutes(2).toNanos()), tickNanos);
+
+        assertTrue(result.polls() < TICKS, "some polls were skipped");
+        // a second skip would reuse a reading from 40 seconds ago
+        assertEquals(1, result.maxSkippedInARow());
+        assertTrue(SensorCadence.MAX_REUSED_AGE_NANOS < 2 * tickNanos);
+    }
+
+    private static Result poll(LongToIntFunction sensor) {
+        return poll(sensor, TICK_NANOS);
+    }
+
+    private static Result poll(LongToIntFunction sensor, long tickNanos) {
+        var cadence = new SensorCadence();
+        var polls = 0;
+        var skippedInARow = 0;
+        var maxSkippedInARow = 0;
+        var staleTicks = 0;
+        var maxStaleTicks = 0;
+        for (int tick = 0; tick < TICKS; ++tick) {
+            var start = tick * tickNanos;
+            int reading;
+            if (cadence.isDue(start)) {
+                reading = sensor.applyAsInt(start + POLL_NANOS / 2);
+                cadence.observe(reading, start, start + POLL_NANOS);
+                polls++;
+                skippedInARow = 0;
+            } else {
+                reading = cadence.reading();
+                maxSkippedInARow = Math.max(maxSkippedInARow, ++skippedInARow);
+            }
+            staleTicks = reading == sensor.applyAsInt(start) ? 0 : staleTicks + 1;
+            maxStaleTicks = Math.max(maxStaleTicks, staleTicks);
+        }
+        return new Result(polls, maxSkippedInARow, maxStaleTicks);
+    }
+}
@@ -0,0 +1,129 @@
+package com.bjornp.kubewatt.estimator;
+
+import com.bjornp.kubewatt.collector.container.KubernetesContainerUtilizationCollector.UtilizationVisitor;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NodeSlotsTest {
+    private static final List<Pattern> CONTROL_PLANE_PODS = List.of(Pattern.compile("kube-apiserver-.*"), Pattern.compile("etcd-.*"));
+
+    private record Usage(String namespace, String pod, String container, double cpu) {
+    }
+
+    private static final List<Usage> NODE = List.of(
+            new Usage("shop", "web-1", "web", 0.8),
+            new Usage("shop", "web-1", "sidecar", 0.1),
+            new Usage("shop", "db-0", "db", 1.5),
+            new Usage("kube-system", "kube-apiserver-node-1", "kube-apiserver", 0.6),
+            new Usage("kube-system", "coredns-1", "coredns", 0.2),
+            new Usage("monitoring", "prometheus-0", "prometheus", 1.2)
+    );
+
+    @Test
+    void scopingDoesNotChangeTheShareOfInScopeContainers() {
+        var unscoped = divide(usage -> true);
+        var scoped = divide(usage -> usage.namespace().equals("shop"));
+
+        assertEquals(3, scoped.size());
+        for (var entry : scoped.entrySet()) {
+            assertEquals(unscoped.get(entry.getKey()), entry.getValue(), 1e-9, entry.getKey());
+        }
+        // the out-of-scope pods still took their share
+        assertEquals(100 * 2.4 / 3.8, scoped.values().stream().mapToDouble(Double::doubleValue).sum(), 1e-9);
+    }
+
+    @Test
+    void outOfScopePodTotalsGiveTheSameShares() {
+        var unscoped = divide(usage -> true);
+
+        // the collector passes the usage of an out-of-scope pod as one total instead of per container
+        var slots = new NodeSlots();
+        var totals = new HashMap<List<String>, Double>();
+        for (var usage : NODE) {
+            if (usage.namespace().equals("shop")) {
+                slots.record(usage.namespace(), usage.pod(), usage.container(), usage.cpu(), true, 1, CONTROL_PLANE_PODS);
+            } else {
+                totals.merge(List.of(usage.namespace(), usage.pod()), usage.cpu(), Double::sum);
+            }
+        }
+        totals.forEach((pod, cpu) -> slots.record(pod.get(0), pod.get(1), UtilizationVisitor.WHOLE_POD, cpu, false, 1, CONTROL_PLANE_PODS));
+        slots.release(1);
+        slots.divide(100);
+        var scoped = collect(slots);
+
+        assertEquals(3, scoped.size());
+        for (var entry : scoped.entrySet()) {
+            assertEquals(unscoped.get(entry.getKey()), entry.getValue(), 1e-9, entry.getKey());
+        }
+    }
+
+    @Test
+    void controlPlaneContainersGetNoShare() {
+        var power = divide(usage -> true);
+
+        assertEquals(5, power.size());
+        assertEquals(100, power.values().stream().mapToDouble(Double::doubleValue).sum(), 1e-9);
+        assertEquals(100 * 0.8 / 3.8, power.get("shop/web-1/web"), 1e-9);
+    }
+
+    @Test
+    void containersThatAreNoLongerReportedAreReleased() {
+        var slots = new NodeSlots();
+        slots.record("shop", "web-1", "web", 1, true, 1, CONTROL_PLANE_PODS);
+        slots.record("shop", "web-2", "web", 1, true, 1, CONTROL_PLANE_PODS);
+        slots.release(1);
+        slots.divide(10);
+        assertEquals(2, slots.count());
+
+        slots.record("shop", "web-1", "web", 1, true, 2, CONTROL_PLANE_PODS);
+        slots.release(2);
+        slots.divide(10);
+        var power = collect(slots);
+        assertEquals(Map.of("shop/web-1/web", 10.0), power);
+    }
+
+    @Test
+    void reportedContainersAreRecordedTogether() {
+        var recorded = divide(usage -> true);
+
+        var slots = new NodeSlots();
+        for (var usage : NODE) {
+            slots.report(usage.namespace(), usage.pod(), usage.container(), usage.cpu(), true);
+        }
+        assertEquals(0, slots.count());
+        slots.recordReported(1, CONTROL_PLANE_PODS);
+        slots.release(1);
+        slots.divide(100);
+        assertEquals(recorded, collect(slots));
+
+        // the queue is emptied, so the next tick only sees what is reported again
+        slots.report("shop", "db-0", "db", 1.5, true);
+        slots.recordReported(2, CONTROL_PLANE_PODS);
+        slots.release(2);
+        slots.divide(100);
+        assertEquals(Map.of("shop/db-0/db", 100.0), collect(slots));
+    }
+
+    private static Map<String, Double> divide(Predicate<Usage> inScope) {
+        var slots = new NodeSlots();
+        for (var usage : NODE) {
+            slots.record(usage.namespace(), usage.pod(), usage.container(), usage.cpu(), inScope.test(usage), 1, CONTROL_PLANE_PODS);
+        }
+        slots.release(1);
+        slots.divide(100);
+        return collect(slots);
+    }
+
+    private static Map<String, Double> collect(NodeSlots slots) {
+        var power = new HashMap<String, Double>();
+        slots.forEach("node-1", (node, namespace, pod, container, watts) -> power.put(String.join("/", namespace, pod, container), watts));
+        return power;
+    }
+}
@@ -0,0 +1,171 @@
+package com.bjornp.kubewatt.exporter.remotewrite;
+
+import com.bjornp.kubewatt.exporter.PowerSeries;
+import com.bjornp.kubewatt.utils.config.Config;
+import com.google.protobuf.CodedInputStream;
+import com.sun.net.httpserver.HttpServer;
+import io.airlift.compress.snappy.SnappyDecompressor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/// Pushes series to a stub receiver and decodes what it received.
+class RemoteWriteSinkTest {
+    private record Received(Map<String, String> headers, byte[] body) {
+    }
+
+    private record TimeSeries(Map<String, String> labels, double value, long timestampMillis) {
+    }
+
+    private final LinkedBlockingQueue<Received> received = new LinkedBlockingQueue<>();
+
+    /// The number of requests the stub still fails with a 503 before it accepts them
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private HttpServer server;
+
+    private RemoteWriteSink sink;
+
+    @BeforeEach
+    void startReceiver() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/v1/write", exchange -> {
+            try (exchange) {
+                var headers = Map.of(
+                        "Content-Encoding", exchange.getRequestHeaders().getFirst("Content-Encoding"),
+                        "Content-Type", exchange.getRequestHeaders().getFirst("Content-Type"),
+                        "X-Prometheus-Remote-Write-Version", exchange.getRequestHeaders().getFirst("X-Prometheus-Remote-Write-Version")
+                );
+                received.add(new Received(headers, exchange.getRequestBody().readAllBytes()));
+                exchange.sendResponseHeaders(failures.getAndDecrement() > 0 ? 503 : 204, -1);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopReceiver() {
+        if (sink != null) {
+            sink.close();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    void pushesSeriesWithSortedLabelsAndTheTickTimestamp() throws Exception {
+        sink = sink(2);
+        var values = new LinkedHashMap<List<String>, Double>();
+        values.put(List.of("node-1", "shop", "web-1", "web", "dynamic"), 3.5);
+        values.put(List.of("node-1", "", "", "", "static"), 80.0);
+        values.put(List.of("node-2", "shop", "db-0", "db", "dynamic"), 12.25);
+        sink.accept(new PowerSeries(List.of("node", "namespace", "pod", "container", "type"), values, 1_700_000_000_000L));
+
+        var first = take();
+        assertEquals(Map.of(
+                "Content-Encoding", "snappy",
+                "Content-Type", "application/x-protobuf",
+                "X-Prometheus-Remote-Write-Version", "0.1.0"
+        ), first.headers());
+        var series = new ArrayList<>(decode(first.body()));
+        assertEquals(2, series.size());
+        series.addAll(decode(take().body()));
+        assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+
+        assertEquals(3, series.size());
+        var web = series.getFirst();
+        // sorted by name, __name__ first, and empty values left out
+        assertEquals(List.of("__name__", "container", "namespace", "node", "pod", "type"), List.copyOf(web.labels().keySet()));
+        assertEquals("kubewatt_container_power_watts", web.labels().get("__name__"));
+        assertEquals("web-1", web.labels().get("pod"));
+        assertEquals(3.5, web.value());
+        assertEquals(1_700_000_000_000L, web.timestampMillis());
+
+        var staticPower = series.get(1);
+        assertEquals(List.of("__name__", "node", "type"), List.copyOf(staticPower.labels().keySet()));
+        assertEquals(80.0, staticPower.value());
+        assertEquals(12.25, series.get(2).value());
+        series.forEach(timeSeries -> assertEquals(1_700_000_000_000L, timeSeries.timestampMillis()));
+    }
+
+    @Test
+    void retriesTheSameRequestOn5xx() throws Exception {
+        failures.set(2);
+        sink = sink(500);
+        sink.accept(new PowerSeries(List.of("node", "type"), Map.of(List.of("node-1", "static"), 80.0), 1_700_000_015_000L));
+
+        var attempts = List.of(take(), take(), take());
+        assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+        assertArrayEquals(attempts.getFirst().body(), attempts.get(1).body());
+        assertArrayEquals(attempts.getFirst().body(), attempts.get(2).body());
+        var series = decode(attempts.get(2).body());
+        assertEquals(List.of(new TimeSeries(Map.of("__name__", "kubewatt_container_power_watts", "node", "node-1", "type", "static"), 80.0, 1_700_000_015_000L)), series);
+    }
+
+    private RemoteWriteSink sink(int batchSize) {
+        var url = "http://localhost:%d/api/v1/write".formatted(server.getAddress().getPort());
+        return new RemoteWriteSink(new Config.RemoteWriteConfig(url, batchSize, 10, 2000, 10, 50, null), "kubewatt_container_power_watts");
+    }
+
+    private Received take() throws InterruptedException {
+        var request = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(request, "no request received");
+        return request;
+    }
+
+    /// Decodes a snappy-compressed `WriteRequest`.
+    private static List<TimeSeries> decode(byte[] body) throws IOException {
+        var decompressor = new SnappyDecompressor();
+        var message = new byte[SnappyDecompressor.getUncompressedLength(body, 0)];
+        decompressor.decompress(body, 0, body.length, message, 0, message.length);
+
+        var result = new ArrayList<TimeSeries>();
+        var request = CodedInputStream.newInstance(message);
+        for (var tag = request.readTag(); tag != 0; tag = request.readTag()) {
+            assertEquals(1, tag >>> 3);
+            var timeSeries = CodedInputStream.newInstance(request.readByteArray());
+            var labels = new LinkedHashMap<String, String>();
+            var value = Double.NaN;
+            var timestamp = -1L;
+            for (var field = timeSeries.readTag(); field != 0; field = timeSeries.readTag()) {
+                var nested = CodedInputStream.newInstance(timeSeries.readByteArray());
+                if (field >>> 3 == 1) {
+                    String name = null;
+                    String labelValue = null;
+                    for (var labelField = nested.readTag(); labelField != 0; labelField = nested.readTag()) {
+                        if (labelField >>> 3 == 1) {
+                            name = nested.readString();
+                        } else {
+                            labelValue = nested.readString();
+                        }
+                    }
+                    labels.put(name, labelValue);
+                } else {
+                    for (var sampleField = nested.readTag(); sampleField != 0; sampleField = nested.readTag()) {
+                        if (sampleField >>> 3 == 1) {
+                            value = nested.readDouble();
+                        } else {
+                            timestamp = nested.readInt64();
+                        }
+                    }
+                }
+            }
+            result.add(new TimeSeries(labels, value, timestamp));
+        }
+        return result;
+    }
+}
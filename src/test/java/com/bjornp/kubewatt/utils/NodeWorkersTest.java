@@ -0,0 +1,67 @@
+package com.bjornp.kubewatt.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NodeWorkersTest {
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void callsEveryNodeOnce() {
+        var calls = new AtomicIntegerArray(1000);
+        NodeWorkers.forEachNode(pool, calls.length(), calls::incrementAndGet);
+        for (int i = 0; i < calls.length(); ++i) {
+            assertEquals(1, calls.get(i), "node " + i);
+        }
+    }
+
+    @Test
+    void runsNodesConcurrently() {
+        // every node waits for another one, which only returns when at least two run at the same time
+        var barrier = new CyclicBarrier(2);
+        var threads = ConcurrentHashMap.<Thread>newKeySet();
+        NodeWorkers.forEachNode(pool, 4, i -> {
+            threads.add(Thread.currentThread());
+            try {
+                barrier.await(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(threads.size() > 1);
+    }
+
+    @Test
+    void runsOnTheCallingThreadWithoutPool() {
+        var threads = ConcurrentHashMap.<Thread>newKeySet();
+        NodeWorkers.forEachNode(null, 10, i -> threads.add(Thread.currentThread()));
+        assertEquals(Set.of(Thread.currentThread()), threads);
+    }
+
+    @Test
+    void rethrowsFailures() {
+        var e = assertThrows(IllegalStateException.class, () -> NodeWorkers.forEachNode(pool, 8, i -> {
+            if (i == 5) {
+                throw new IllegalStateException("node 5");
+            }
+        }));
+        // a failure on a worker thread is rethrown as a copy that has the original as its cause
+        assertTrue(e.getMessage().contains("node 5"), e.getMessage());
+    }
+}